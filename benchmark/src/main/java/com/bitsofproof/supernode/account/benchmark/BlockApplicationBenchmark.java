@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsofproof.supernode.account.ConfirmationManager;
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// ConfirmationManager.trunkUpdate with one new block on top of the trunk per call
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.SingleShotTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, batchSize = BlockApplicationBenchmark.BATCH)
+@Measurement (iterations = 10, batchSize = BlockApplicationBenchmark.BATCH)
+@Fork (1)
+public class BlockApplicationBenchmark
+{
+	static final int BATCH = 20;
+
+	@Param ({ "10", "100", "1000" })
+	private int accounts;
+
+	@Param ({ "100", "1000" })
+	private int transactionsPerBlock;
+
+	private ConfirmationManager confirmationManager;
+	private List<Block> blocks;
+	private int next;
+
+	@Setup (Level.Iteration)
+	public void setup () throws ValidationException
+	{
+		Random random = new Random (42);
+		confirmationManager = new ConfirmationManager ();
+		List<Address> addresses = new ArrayList<> ();
+		for ( int i = 0; i < accounts; ++i )
+		{
+			KeyListAccountManager account = Fixtures.createAccount (1);
+			confirmationManager.addAccount (account);
+			addresses.add (account.getNextReceiverAddress ());
+		}
+		blocks = createChain (null, 1, BATCH, transactionsPerBlock, addresses, random);
+		next = 0;
+	}
+
+	static List<Block> createChain (String previousHash, int height, int length, int transactionsPerBlock, List<Address> addresses, Random random)
+			throws ValidationException
+	{
+		List<Block> chain = new ArrayList<> ();
+		for ( int i = 0; i < length; ++i )
+		{
+			List<Transaction> transactions = new ArrayList<> ();
+			for ( int j = 0; j < transactionsPerBlock; ++j )
+			{
+				transactions.add (Fixtures.createFunding (addresses.get (random.nextInt (addresses.size ())), 1));
+			}
+			Block b = Fixtures.createBlock (previousHash, height + i, transactions);
+			chain.add (b);
+			previousHash = b.getHash ();
+		}
+		return chain;
+	}
+
+	@Benchmark
+	public void trunkUpdate ()
+	{
+		confirmationManager.trunkUpdate (Collections.singletonList (blocks.get (next++)));
+	}
+}
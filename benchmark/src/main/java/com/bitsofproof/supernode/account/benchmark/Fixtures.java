@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// synthetic transactions and blocks, they are well formed but not validly signed
+public class Fixtures
+{
+	public static final long OUTPUT_VALUE = 1000000;
+
+	public static final String COINBASE_HASH = Hash.ZERO_HASH_STRING;
+
+	private static final long COINBASE_IX = 0xffffffffL;
+	private static int nonce;
+
+	public static KeyListAccountManager createAccount (int keys)
+	{
+		KeyListAccountManager account = new KeyListAccountManager ();
+		for ( int i = 0; i < keys; ++i )
+		{
+			account.addKey (ECKeyPair.createNew (true));
+		}
+		return account;
+	}
+
+	public static Address createAddress ()
+	{
+		return ECKeyPair.createNew (true).getAddress ();
+	}
+
+	// a transaction from nowhere with the given number of outputs to the address
+	public static Transaction createFunding (Address address, int outputs) throws ValidationException
+	{
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		TransactionInput i = new TransactionInput ();
+		i.setSourceHash (COINBASE_HASH);
+		i.setIx (COINBASE_IX);
+		i.setScript (nextNonce ());
+		t.getInputs ().add (i);
+		for ( int j = 0; j < outputs; ++j )
+		{
+			t.getOutputs ().add (createOutput (address, OUTPUT_VALUE));
+		}
+		t.computeHash ();
+		return t;
+	}
+
+	// an account with outputs confirmed at height 1
+	public static KeyListAccountManager createFundedAccount (int outputs) throws ValidationException
+	{
+		KeyListAccountManager account = createAccount (10);
+		Block block = createBlock (null, 1, new ArrayList<Transaction> ());
+		for ( int i = 0; i < outputs; ++i )
+		{
+			Transaction funding = createFunding (account.getNextReceiverAddress (), 1);
+			confirm (funding, block);
+			account.process (funding);
+		}
+		return account;
+	}
+
+	// two inputs and two outputs between addresses the account does not own
+	public static List<Transaction> createForeignTransactions (int n) throws ValidationException
+	{
+		List<Address> receiver = new ArrayList<> ();
+		receiver.add (createAddress ());
+		receiver.add (createAddress ());
+		List<Transaction> transactions = new ArrayList<> ();
+		for ( int i = 0; i < n; ++i )
+		{
+			Transaction funding = createFunding (receiver.get (0), 2);
+			transactions.add (createSpend (funding.getOutputs (), receiver));
+		}
+		return transactions;
+	}
+
+	public static Transaction createSpend (List<TransactionOutput> spent, List<Address> receiver) throws ValidationException
+	{
+		long sum = 0;
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		for ( TransactionOutput o : spent )
+		{
+			TransactionInput i = new TransactionInput ();
+			i.setSourceHash (o.getTxHash ());
+			i.setIx (o.getIx ());
+			i.setScript (nextNonce ());
+			t.getInputs ().add (i);
+			sum += o.getValue ();
+		}
+		for ( Address a : receiver )
+		{
+			t.getOutputs ().add (createOutput (a, sum / receiver.size ()));
+		}
+		t.computeHash ();
+		return t;
+	}
+
+	public static Transaction createSpend (TransactionOutput spent, Address receiver) throws ValidationException
+	{
+		List<TransactionOutput> spents = new ArrayList<> ();
+		spents.add (spent);
+		List<Address> receivers = new ArrayList<> ();
+		receivers.add (receiver);
+		return createSpend (spents, receivers);
+	}
+
+	public static synchronized Block createBlock (String previousHash, int height, List<Transaction> transactions)
+	{
+		Block b = new Block ();
+		b.setVersion (2);
+		b.setPreviousHash (previousHash);
+		b.setMerkleRoot (Hash.ZERO_HASH_STRING);
+		b.setCreateTime (1400000000L + height * 600L);
+		b.setDifficultyTarget (0x1d00ffffL);
+		b.setNonce (nonce++);
+		b.setHeight (height);
+		b.setTransactions (transactions);
+		b.computeHash ();
+		return b;
+	}
+
+	public static void confirm (Transaction t, Block b)
+	{
+		t.setBlockHash (b.getHash ());
+		t.setHeight (b.getHeight ());
+		t.setBlocktime (b.getCreateTime ());
+	}
+
+	private static TransactionOutput createOutput (Address address, long value) throws ValidationException
+	{
+		TransactionOutput o = new TransactionOutput ();
+		o.setValue (value);
+		o.setScript (address.getAddressScript ());
+		return o;
+	}
+
+	private static synchronized byte[] nextNonce ()
+	{
+		int n = nonce++;
+		return new byte[] { 4, (byte) n, (byte) (n >>> 8), (byte) (n >>> 16), (byte) (n >>> 24) };
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// run with -prof gc, gc.alloc.rate.norm is the allocation per processed transaction
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 10, time = 1)
+@Fork (1)
+public class ForeignTransactionBenchmark
+{
+	private KeyListAccountManager account;
+	private List<Transaction> transactions;
+	private int next;
+
+	@Setup (Level.Trial)
+	public void setup () throws ValidationException
+	{
+		account = Fixtures.createFundedAccount (1000);
+		transactions = Fixtures.createForeignTransactions (1024);
+	}
+
+	@Benchmark
+	public boolean process ()
+	{
+		return account.process (transactions.get (next++ & 1023));
+	}
+}
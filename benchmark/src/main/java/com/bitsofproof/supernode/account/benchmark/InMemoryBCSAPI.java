@@ -0,0 +1,498 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.AlertListener;
+import com.bitsofproof.supernode.api.BCSAPI;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.RejectListener;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionListener;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.api.TrunkListener;
+import com.bitsofproof.supernode.common.ExtendedKey;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// a server stand-in for offline load tests, it does not validate scripts and announces every new block as trunk
+public class InMemoryBCSAPI implements BCSAPI
+{
+	private final Map<String, Block> blocks = new HashMap<> ();
+	private final List<String> trunk = new ArrayList<> ();
+	private final Map<String, Transaction> transactions = new HashMap<> ();
+	private final Map<String, Transaction> mempool = new LinkedHashMap<> ();
+	private final Map<String, String> spentBy = new HashMap<> ();
+
+	private final Set<TrunkListener> trunkListener = new CopyOnWriteArraySet<> ();
+	private final Set<TransactionListener> transactionListener = new CopyOnWriteArraySet<> ();
+	private final Set<RejectListener> rejectListener = new CopyOnWriteArraySet<> ();
+
+	private static String outpoint (String hash, long ix)
+	{
+		return hash + ":" + ix;
+	}
+
+	// extends the trunk or reorganizes it if the previous block is not the highest
+	public void addBlock (Block block) throws BCSAPIException
+	{
+		Block announced;
+		synchronized ( this )
+		{
+			if ( block.getPreviousHash () != null && !trunk.isEmpty () && !block.getPreviousHash ().equals (trunk.get (trunk.size () - 1)) )
+			{
+				int forkPoint = trunk.indexOf (block.getPreviousHash ());
+				if ( forkPoint < 0 )
+				{
+					throw new BCSAPIException ("Unknown previous block " + block.getPreviousHash ());
+				}
+				while ( trunk.size () > forkPoint + 1 )
+				{
+					unconfirm (blocks.get (trunk.remove (trunk.size () - 1)));
+				}
+			}
+			blocks.put (block.getHash (), block);
+			trunk.add (block.getHash ());
+			for ( Transaction t : block.getTransactions () )
+			{
+				t.setBlockHash (block.getHash ());
+				t.setHeight (block.getHeight ());
+				t.setBlocktime (block.getCreateTime ());
+				evictConflicts (t);
+				mempool.remove (t.getHash ());
+				transactions.put (t.getHash (), t);
+				spend (t);
+			}
+			announced = copy (block, false);
+		}
+		List<Block> added = Collections.singletonList (announced);
+		for ( TrunkListener l : trunkListener )
+		{
+			l.trunkUpdate (added);
+		}
+	}
+
+	private void unconfirm (Block block)
+	{
+		for ( Transaction t : block.getTransactions () )
+		{
+			t.setBlockHash (null);
+			t.setHeight (0);
+			mempool.put (t.getHash (), t);
+		}
+	}
+
+	private void spend (Transaction t)
+	{
+		for ( TransactionInput i : t.getInputs () )
+		{
+			if ( !i.getSourceHash ().equals (Hash.ZERO_HASH_STRING) )
+			{
+				spentBy.put (outpoint (i.getSourceHash (), i.getIx ()), t.getHash ());
+			}
+		}
+	}
+
+	private void evictConflicts (Transaction t)
+	{
+		for ( TransactionInput i : t.getInputs () )
+		{
+			String spender = spentBy.get (outpoint (i.getSourceHash (), i.getIx ()));
+			if ( spender != null && !spender.equals (t.getHash ()) )
+			{
+				mempool.remove (spender);
+				transactions.remove (spender);
+			}
+		}
+	}
+
+	private String getConflict (Transaction t)
+	{
+		for ( TransactionInput i : t.getInputs () )
+		{
+			String spender = spentBy.get (outpoint (i.getSourceHash (), i.getIx ()));
+			if ( spender != null && transactions.containsKey (spender) && !spender.equals (t.getHash ()) )
+			{
+				return spender;
+			}
+		}
+		return null;
+	}
+
+	// the client gets its own objects just like it would after deserialization
+	private static Transaction copy (Transaction t)
+	{
+		Transaction c = new Transaction ();
+		c.setVersion (t.getVersion ());
+		c.setLockTime (t.getLockTime ());
+		c.setInputs (new ArrayList<TransactionInput> ());
+		c.setOutputs (new ArrayList<TransactionOutput> ());
+		for ( TransactionInput i : t.getInputs () )
+		{
+			TransactionInput ci = new TransactionInput ();
+			ci.setSourceHash (i.getSourceHash ());
+			ci.setIx (i.getIx ());
+			ci.setScript (i.getScript ());
+			ci.setSequence (i.getSequence ());
+			c.getInputs ().add (ci);
+		}
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			TransactionOutput co = new TransactionOutput ();
+			co.setValue (o.getValue ());
+			co.setScript (o.getScript ());
+			c.getOutputs ().add (co);
+		}
+		c.computeHash ();
+		c.setBlockHash (t.getBlockHash ());
+		c.setHeight (t.getHeight ());
+		c.setBlocktime (t.getBlocktime ());
+		return c;
+	}
+
+	private static Block copy (Block b, boolean header)
+	{
+		Block c = new Block ();
+		c.setVersion (b.getVersion ());
+		c.setPreviousHash (b.getPreviousHash ());
+		c.setMerkleRoot (b.getMerkleRoot ());
+		c.setCreateTime (b.getCreateTime ());
+		c.setDifficultyTarget (b.getDifficultyTarget ());
+		c.setNonce (b.getNonce ());
+		c.setHeight (b.getHeight ());
+		List<Transaction> ts = new ArrayList<> ();
+		for ( Transaction t : b.getTransactions () )
+		{
+			ts.add (copy (t));
+		}
+		c.setTransactions (ts);
+		c.computeHash ();
+		if ( header )
+		{
+			c.setTransactions (null);
+		}
+		return c;
+	}
+
+	private static boolean isRelevant (Transaction t, Set<Address> addresses, Map<String, Transaction> known)
+	{
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			if ( addresses.contains (o.getOutputAddress ()) )
+			{
+				return true;
+			}
+		}
+		for ( TransactionInput i : t.getInputs () )
+		{
+			Transaction prev = known.get (i.getSourceHash ());
+			if ( prev != null && addresses.contains (prev.getOutputs ().get ((int) i.getIx ()).getOutputAddress ()) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// trunk transactions in chain order followed by the mempool
+	private synchronized List<Transaction> getHistory (long after)
+	{
+		List<Transaction> history = new ArrayList<> ();
+		for ( String h : trunk )
+		{
+			Block b = blocks.get (h);
+			if ( b.getCreateTime () >= after )
+			{
+				history.addAll (b.getTransactions ());
+			}
+		}
+		history.addAll (mempool.values ());
+		return history;
+	}
+
+	public synchronized int getTransactionCount ()
+	{
+		return transactions.size ();
+	}
+
+	@Override
+	public boolean isProduction () throws BCSAPIException
+	{
+		return false;
+	}
+
+	@Override
+	public long ping (long nonce) throws BCSAPIException
+	{
+		return nonce;
+	}
+
+	@Override
+	public void addAlertListener (AlertListener listener) throws BCSAPIException
+	{
+	}
+
+	@Override
+	public void removeAlertListener (AlertListener listener)
+	{
+	}
+
+	@Override
+	public synchronized int getChainHeight () throws BCSAPIException
+	{
+		if ( trunk.isEmpty () )
+		{
+			return 0;
+		}
+		return blocks.get (trunk.get (trunk.size () - 1)).getHeight ();
+	}
+
+	@Override
+	public synchronized Block getBlockHeader (String hash) throws BCSAPIException
+	{
+		Block b = blocks.get (hash);
+		return b == null ? null : copy (b, true);
+	}
+
+	@Override
+	public synchronized Block getBlock (String hash) throws BCSAPIException
+	{
+		Block b = blocks.get (hash);
+		return b == null ? null : copy (b, false);
+	}
+
+	@Override
+	public synchronized Transaction getTransaction (String hash) throws BCSAPIException
+	{
+		Transaction t = transactions.get (hash);
+		return t == null ? null : copy (t);
+	}
+
+	// double spends of known transactions are rejected, everything else is relayed
+	@Override
+	public void sendTransaction (Transaction transaction) throws BCSAPIException
+	{
+		Transaction t = copy (transaction);
+		synchronized ( this )
+		{
+			String conflict = getConflict (t);
+			if ( conflict == null )
+			{
+				transactions.put (t.getHash (), t);
+				mempool.put (t.getHash (), t);
+				spend (t);
+			}
+			else
+			{
+				for ( RejectListener l : rejectListener )
+				{
+					l.rejected ("tx", t.getHash (), "double spend of " + conflict, 0x12);
+				}
+				return;
+			}
+		}
+		for ( TransactionListener l : transactionListener )
+		{
+			l.process (copy (t));
+		}
+	}
+
+	// a conflicting transaction is relayed as if it came from a different node
+	public void sendDoubleSpend (Transaction transaction)
+	{
+		Transaction t = copy (transaction);
+		for ( TransactionListener l : transactionListener )
+		{
+			l.process (copy (t));
+		}
+	}
+
+	@Override
+	public void sendBlock (Block block) throws BCSAPIException
+	{
+		addBlock (block);
+	}
+
+	@Override
+	public void registerRejectListener (RejectListener listener) throws BCSAPIException
+	{
+		rejectListener.add (listener);
+	}
+
+	@Override
+	public void removeRejectListener (RejectListener listener)
+	{
+		rejectListener.remove (listener);
+	}
+
+	@Override
+	public void registerTransactionListener (TransactionListener listener) throws BCSAPIException
+	{
+		transactionListener.add (listener);
+	}
+
+	@Override
+	public void removeTransactionListener (TransactionListener listener)
+	{
+		transactionListener.remove (listener);
+	}
+
+	@Override
+	public void registerTrunkListener (TrunkListener listener) throws BCSAPIException
+	{
+		trunkListener.add (listener);
+	}
+
+	@Override
+	public void removeTrunkListener (TrunkListener listener)
+	{
+		trunkListener.remove (listener);
+	}
+
+	@Override
+	public void scanTransactionsForAddresses (Set<Address> addresses, long after, TransactionListener listener) throws BCSAPIException
+	{
+		List<Transaction> relevant = new ArrayList<> ();
+		synchronized ( this )
+		{
+			for ( Transaction t : getHistory (after) )
+			{
+				if ( isRelevant (t, addresses, transactions) )
+				{
+					relevant.add (copy (t));
+				}
+			}
+		}
+		for ( Transaction t : relevant )
+		{
+			listener.process (t);
+		}
+	}
+
+	@Override
+	public void scanUTXOForAddresses (Set<Address> addresses, TransactionListener listener) throws BCSAPIException
+	{
+		List<Transaction> relevant = new ArrayList<> ();
+		synchronized ( this )
+		{
+			for ( Transaction t : getHistory (0) )
+			{
+				for ( TransactionOutput o : t.getOutputs () )
+				{
+					if ( addresses.contains (o.getOutputAddress ()) && !spentBy.containsKey (outpoint (t.getHash (), o.getIx ())) )
+					{
+						relevant.add (copy (t));
+						break;
+					}
+				}
+			}
+		}
+		for ( Transaction t : relevant )
+		{
+			listener.process (t);
+		}
+	}
+
+	// extends the scanned key range while keys within lookAhead of its end are used
+	@Override
+	public void scanTransactions (ExtendedKey master, int firstIndex, int lookAhead, long after, TransactionListener listener) throws BCSAPIException
+	{
+		Map<Address, Integer> keyIndex = new HashMap<> ();
+		Set<String> delivered = new HashSet<> ();
+		List<Transaction> history = getHistory (after);
+		int end = firstIndex;
+		int used = firstIndex - 1;
+		try
+		{
+			do
+			{
+				while ( end <= used + lookAhead )
+				{
+					keyIndex.put (master.getKey (end).getAddress (), end);
+					++end;
+				}
+				List<Transaction> relevant = new ArrayList<> ();
+				synchronized ( this )
+				{
+					for ( Transaction t : history )
+					{
+						if ( !delivered.contains (t.getHash ()) && isRelevant (t, keyIndex.keySet (), transactions) )
+						{
+							delivered.add (t.getHash ());
+							for ( TransactionOutput o : t.getOutputs () )
+							{
+								Integer ix = keyIndex.get (o.getOutputAddress ());
+								if ( ix != null )
+								{
+									used = Math.max (used, ix);
+								}
+							}
+							relevant.add (copy (t));
+						}
+					}
+				}
+				for ( Transaction t : relevant )
+				{
+					listener.process (t);
+				}
+			} while ( end <= used + lookAhead );
+		}
+		catch ( ValidationException e )
+		{
+			throw new BCSAPIException (e);
+		}
+	}
+
+	// sends trunk blocks above the highest known inventory entry, at most limit of them
+	@Override
+	public void catchUp (List<String> inventory, int limit, boolean headers, TrunkListener listener) throws BCSAPIException
+	{
+		List<Block> added = new ArrayList<> ();
+		synchronized ( this )
+		{
+			int from = 0;
+			for ( String h : new ArrayList<> (inventory) )
+			{
+				int ix = trunk.indexOf (h);
+				if ( ix >= 0 )
+				{
+					from = Math.max (from, ix + 1);
+				}
+			}
+			from = Math.max (from, trunk.size () - limit);
+			for ( int i = from; i < trunk.size (); ++i )
+			{
+				added.add (copy (blocks.get (trunk.get (i)), headers));
+			}
+		}
+		if ( !added.isEmpty () )
+		{
+			listener.trunkUpdate (added);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// unconfirmed transactions spending an own output to an own address, so the UTXO size stays constant
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.SingleShotTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, batchSize = IngestionBenchmark.BATCH)
+@Measurement (iterations = 10, batchSize = IngestionBenchmark.BATCH)
+@Fork (1)
+public class IngestionBenchmark
+{
+	static final int BATCH = 1000;
+
+	@Param ({ "100", "1000", "10000" })
+	private int utxoSize;
+
+	private KeyListAccountManager account;
+	private Transaction[] transactions;
+	private int next;
+
+	@Setup (Level.Iteration)
+	public void setup () throws ValidationException
+	{
+		account = Fixtures.createAccount (1);
+		Address address = account.getNextReceiverAddress ();
+		Transaction funding = Fixtures.createFunding (address, utxoSize);
+		Block block = Fixtures.createBlock (null, 1, new ArrayList<Transaction> ());
+		Fixtures.confirm (funding, block);
+		account.process (funding);
+
+		transactions = new Transaction[BATCH];
+		for ( int i = 0; i < BATCH; ++i )
+		{
+			if ( i < utxoSize )
+			{
+				transactions[i] = Fixtures.createSpend (funding.getOutputs ().get (i), address);
+			}
+			else
+			{
+				transactions[i] = Fixtures.createSpend (transactions[i - utxoSize].getOutputs ().get (0), address);
+			}
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public boolean process ()
+	{
+		return account.process (transactions[next++]);
+	}
+}
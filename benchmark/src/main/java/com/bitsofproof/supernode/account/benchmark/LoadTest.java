@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.bitsofproof.supernode.account.ConfirmationManager;
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// end-to-end sync and live block processing of accounts against an InMemoryBCSAPI
+// live block times include generating the block and relaying its transactions before it is mined
+//
+// java -cp target/benchmarks.jar com.bitsofproof.supernode.account.benchmark.LoadTest [accounts] [history blocks] [live blocks] [transactions per block]
+public class LoadTest
+{
+	private static final int KEYS_PER_ACCOUNT = 10;
+	private static final int FOREIGN_ADDRESSES = 10000;
+
+	public static void main (String[] args) throws ValidationException, BCSAPIException
+	{
+		int accounts = args.length > 0 ? Integer.parseInt (args[0]) : 100;
+		int historyBlocks = args.length > 1 ? Integer.parseInt (args[1]) : 1000;
+		int liveBlocks = args.length > 2 ? Integer.parseInt (args[2]) : 200;
+		int transactionsPerBlock = args.length > 3 ? Integer.parseInt (args[3]) : 100;
+
+		InMemoryBCSAPI api = new InMemoryBCSAPI ();
+		List<KeyListAccountManager> accountManagers = new ArrayList<> ();
+		List<Address> addresses = new ArrayList<> ();
+		for ( int i = 0; i < accounts; ++i )
+		{
+			KeyListAccountManager account = Fixtures.createAccount (KEYS_PER_ACCOUNT);
+			accountManagers.add (account);
+			addresses.addAll (account.getAddresses ());
+		}
+		for ( int i = 0; i < FOREIGN_ADDRESSES; ++i )
+		{
+			addresses.add (Fixtures.createAddress ());
+		}
+		Collections.shuffle (addresses, new Random (42));
+
+		SyntheticChain chain = new SyntheticChain (api, addresses, 42);
+		chain.setTransactionsPerBlock (transactionsPerBlock);
+		chain.setBroadcast (false);
+		chain.generate (historyBlocks);
+		System.out.println ("History of " + chain.getHeight () + " blocks, " + api.getTransactionCount () + " transactions");
+
+		long[] syncTimes = new long[accounts];
+		long start = System.nanoTime ();
+		for ( int i = 0; i < accounts; ++i )
+		{
+			long s = System.nanoTime ();
+			accountManagers.get (i).syncHistory (api);
+			syncTimes[i] = System.nanoTime () - s;
+		}
+		report ("syncHistory", syncTimes, System.nanoTime () - start);
+
+		start = System.nanoTime ();
+		for ( int i = 0; i < accounts; ++i )
+		{
+			long s = System.nanoTime ();
+			accountManagers.get (i).sync (api);
+			syncTimes[i] = System.nanoTime () - s;
+		}
+		report ("sync", syncTimes, System.nanoTime () - start);
+
+		ConfirmationManager confirmationManager = new ConfirmationManager ();
+		start = System.nanoTime ();
+		confirmationManager.init (api, 144);
+		System.out.println ("ConfirmationManager.init " + (System.nanoTime () - start) / 1000000 + " ms");
+		for ( KeyListAccountManager account : accountManagers )
+		{
+			confirmationManager.addAccount (account);
+			api.registerTransactionListener (account);
+			api.registerRejectListener (account);
+		}
+		api.registerTrunkListener (confirmationManager);
+
+		chain.setBroadcast (true);
+		long[] blockTimes = new long[liveBlocks];
+		start = System.nanoTime ();
+		for ( int i = 0; i < liveBlocks; ++i )
+		{
+			long s = System.nanoTime ();
+			chain.generate (1);
+			blockTimes[i] = System.nanoTime () - s;
+		}
+		long elapsed = System.nanoTime () - start;
+		report ("live block", blockTimes, elapsed);
+		System.out.println ("live throughput " + (long) liveBlocks * transactionsPerBlock * 1000000000L / elapsed + " tx/s");
+	}
+
+	private static void report (String name, long[] nanos, long elapsed)
+	{
+		long[] sorted = nanos.clone ();
+		Arrays.sort (sorted);
+		System.out.println (name + " n=" + sorted.length + " total=" + elapsed / 1000000 + " ms" + " p50=" + percentile (sorted, 0.5) / 1000 + " us"
+				+ " p90=" + percentile (sorted, 0.9) / 1000 + " us" + " p99=" + percentile (sorted, 0.99) / 1000 + " us" + " max="
+				+ sorted[sorted.length - 1] / 1000 + " us");
+	}
+
+	private static long percentile (long[] sorted, double p)
+	{
+		return sorted[Math.min (sorted.length - 1, (int) (p * sorted.length))];
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// coin selection, fee calculation and signing, inputs are not reserved so every call starts from the same state
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 10, time = 1)
+@Fork (1)
+public class PaymentBenchmark
+{
+	@Param ({ "100", "1000", "10000" })
+	private int utxoCount;
+
+	@Param ({ "1", "10", "50" })
+	private int inputs;
+
+	// 0 signs sequentially
+	@Param ({ "0", "4" })
+	private int signingThreads;
+
+	private KeyListAccountManager account;
+	private ExecutorService executor;
+	private Address receiver;
+	private long amount;
+
+	@Setup (Level.Trial)
+	public void setup () throws ValidationException
+	{
+		account = Fixtures.createAccount (10);
+		Block block = Fixtures.createBlock (null, 1, new ArrayList<Transaction> ());
+		for ( int i = 0; i < utxoCount; ++i )
+		{
+			Transaction funding = Fixtures.createFunding (account.getNextReceiverAddress (), 1);
+			Fixtures.confirm (funding, block);
+			account.process (funding);
+		}
+		if ( signingThreads > 0 )
+		{
+			executor = Executors.newFixedThreadPool (signingThreads);
+			account.setSigningExecutor (executor);
+			account.setParallelSigningThreshold (2);
+		}
+		receiver = Fixtures.createAddress ();
+		amount = (inputs - 1) * Fixtures.OUTPUT_VALUE + Fixtures.OUTPUT_VALUE / 2;
+	}
+
+	@TearDown (Level.Trial)
+	public void tearDown ()
+	{
+		if ( executor != null )
+		{
+			executor.shutdown ();
+		}
+	}
+
+	@Benchmark
+	public Transaction pay () throws ValidationException
+	{
+		return account.pay (receiver, amount);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bitsofproof.supernode.account.ConfirmationManager;
+import com.bitsofproof.supernode.account.KeyListAccountManager;
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// an empty block on the fork point unwinds the blocks above it, their transactions become unconfirmed
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.SingleShotTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 10)
+@Measurement (iterations = 30)
+@Fork (1)
+public class ReorgBenchmark
+{
+	@Param ({ "1", "6", "30" })
+	private int depth;
+
+	@Param ({ "100", "1000" })
+	private int transactionsPerBlock;
+
+	private static final int ACCOUNTS = 10;
+
+	private ConfirmationManager confirmationManager;
+	private Block fork;
+
+	@Setup (Level.Iteration)
+	public void setup () throws ValidationException
+	{
+		Random random = new Random (42);
+		confirmationManager = new ConfirmationManager ();
+		List<Address> addresses = new ArrayList<> ();
+		for ( int i = 0; i < ACCOUNTS; ++i )
+		{
+			KeyListAccountManager account = Fixtures.createAccount (1);
+			confirmationManager.addAccount (account);
+			addresses.add (account.getNextReceiverAddress ());
+		}
+		List<Block> trunk = BlockApplicationBenchmark.createChain (null, 1, depth + 1, transactionsPerBlock, addresses, random);
+		confirmationManager.trunkUpdate (trunk);
+		Block forkPoint = trunk.get (0);
+		fork = Fixtures.createBlock (forkPoint.getHash (), forkPoint.getHeight () + 1, new ArrayList<Transaction> ());
+	}
+
+	@Benchmark
+	public void unwind ()
+	{
+		confirmationManager.trunkUpdate (Collections.singletonList (fork));
+	}
+}
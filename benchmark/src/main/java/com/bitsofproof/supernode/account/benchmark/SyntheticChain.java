@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// generates blocks of transactions between the given addresses into an InMemoryBCSAPI
+public class SyntheticChain
+{
+	private final InMemoryBCSAPI api;
+	private final List<Address> addresses;
+	private final Random random;
+
+	private int transactionsPerBlock = 100;
+	private double addressReuse = 0.2;
+	private double reorgFrequency = 0.01;
+	private int maxReorgDepth = 3;
+	private double doubleSpendRate = 0.001;
+	private boolean broadcast = true;
+
+	private final List<TransactionOutput> unspent = new ArrayList<> ();
+	private final List<Address> used = new ArrayList<> ();
+	private final List<Block> chain = new ArrayList<> ();
+	private final Map<String, Transaction> generated = new HashMap<> ();
+	private int nextFresh;
+
+	public SyntheticChain (InMemoryBCSAPI api, List<Address> addresses, long seed)
+	{
+		this.api = api;
+		this.addresses = addresses;
+		this.random = new Random (seed);
+	}
+
+	public void setTransactionsPerBlock (int transactionsPerBlock)
+	{
+		this.transactionsPerBlock = transactionsPerBlock;
+	}
+
+	// probability of paying to an address that already received
+	public void setAddressReuse (double addressReuse)
+	{
+		this.addressReuse = addressReuse;
+	}
+
+	// probability of a reorg after a block
+	public void setReorgFrequency (double reorgFrequency)
+	{
+		this.reorgFrequency = reorgFrequency;
+	}
+
+	public void setMaxReorgDepth (int maxReorgDepth)
+	{
+		this.maxReorgDepth = maxReorgDepth;
+	}
+
+	// probability of a conflicting transaction relayed before a transaction is mined
+	public void setDoubleSpendRate (double doubleSpendRate)
+	{
+		this.doubleSpendRate = doubleSpendRate;
+	}
+
+	// send transactions to the mempool before they are mined
+	public void setBroadcast (boolean broadcast)
+	{
+		this.broadcast = broadcast;
+	}
+
+	public int getHeight ()
+	{
+		return chain.size ();
+	}
+
+	private Address nextAddress ()
+	{
+		if ( !used.isEmpty () && (random.nextDouble () < addressReuse || nextFresh >= addresses.size ()) )
+		{
+			return used.get (random.nextInt (used.size ()));
+		}
+		Address a = addresses.get (nextFresh++);
+		used.add (a);
+		return a;
+	}
+
+	private Transaction nextTransaction () throws ValidationException
+	{
+		List<Address> receiver = new ArrayList<> ();
+		receiver.add (nextAddress ());
+		receiver.add (nextAddress ());
+		if ( unspent.size () < 2 || random.nextInt (10) == 0 )
+		{
+			return Fixtures.createFunding (receiver.get (0), 1);
+		}
+		List<TransactionOutput> spent = new ArrayList<> ();
+		int n = 1 + random.nextInt (2);
+		for ( int i = 0; i < n; ++i )
+		{
+			int ix = random.nextInt (unspent.size ());
+			spent.add (unspent.get (ix));
+			unspent.set (ix, unspent.get (unspent.size () - 1));
+			unspent.remove (unspent.size () - 1);
+		}
+		return Fixtures.createSpend (spent, receiver);
+	}
+
+	public void generate (int blocks) throws ValidationException, BCSAPIException
+	{
+		for ( int i = 0; i < blocks; ++i )
+		{
+			List<Transaction> transactions = new ArrayList<> ();
+			for ( int j = 0; j < transactionsPerBlock; ++j )
+			{
+				Transaction t = nextTransaction ();
+				if ( random.nextDouble () < doubleSpendRate && !t.getInputs ().isEmpty () && !t.getInputs ().get (0).getSourceHash ().equals (Fixtures.COINBASE_HASH) )
+				{
+					List<TransactionOutput> spent = new ArrayList<> ();
+					for ( int k = 0; k < t.getInputs ().size (); ++k )
+					{
+						TransactionInput input = t.getInputs ().get (k);
+						spent.add (generated.get (input.getSourceHash ()).getOutputs ().get ((int) input.getIx ()));
+					}
+					List<Address> receiver = new ArrayList<> ();
+					receiver.add (nextAddress ());
+					api.sendDoubleSpend (Fixtures.createSpend (spent, receiver));
+				}
+				if ( broadcast )
+				{
+					api.sendTransaction (t);
+				}
+				generated.put (t.getHash (), t);
+				unspent.addAll (t.getOutputs ());
+				transactions.add (t);
+			}
+			mine (transactions);
+			if ( random.nextDouble () < reorgFrequency && chain.size () > maxReorgDepth + 1 )
+			{
+				reorg (1 + random.nextInt (maxReorgDepth));
+			}
+		}
+	}
+
+	private void mine (List<Transaction> transactions) throws BCSAPIException
+	{
+		String previous = chain.isEmpty () ? null : chain.get (chain.size () - 1).getHash ();
+		Block b = Fixtures.createBlock (previous, chain.size () + 1, transactions);
+		chain.add (b);
+		api.addBlock (b);
+	}
+
+	// replaces the highest blocks with a single block that includes all their transactions
+	private void reorg (int depth) throws BCSAPIException
+	{
+		List<Transaction> transactions = new ArrayList<> ();
+		for ( int i = 0; i < depth; ++i )
+		{
+			Block removed = chain.remove (chain.size () - 1);
+			transactions.addAll (0, removed.getTransactions ());
+		}
+		mine (transactions);
+	}
+}
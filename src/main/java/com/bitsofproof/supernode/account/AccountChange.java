@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionOutput;
+
+public class AccountChange
+{
+	// a transaction is added again if it is updated e.g. confirmed
+	public enum Type
+	{
+		OUTPUT_ADDED, OUTPUT_REMOVED, TRANSACTION_ADDED, TRANSACTION_REMOVED
+	};
+
+	public enum Pool
+	{
+		CONFIRMED, CHANGE, RECEIVING, SENDING
+	};
+
+	private final long sequence;
+	private final Type type;
+	private final Pool pool;
+	private final TransactionOutput output;
+	private final Transaction transaction;
+
+	public AccountChange (long sequence, Type type, Pool pool, TransactionOutput output, Transaction transaction)
+	{
+		this.sequence = sequence;
+		this.type = type;
+		this.pool = pool;
+		this.output = output;
+		this.transaction = transaction;
+	}
+
+	public long getSequence ()
+	{
+		return sequence;
+	}
+
+	public Type getType ()
+	{
+		return type;
+	}
+
+	// the output set changed, null for transaction changes
+	public Pool getPool ()
+	{
+		return pool;
+	}
+
+	public TransactionOutput getOutput ()
+	{
+		return output;
+	}
+
+	public Transaction getTransaction ()
+	{
+		return transaction;
+	}
+
+	@Override
+	public String toString ()
+	{
+		if ( output != null )
+		{
+			return sequence + " " + type + " " + pool + " " + output.getTxHash () + " [" + output.getIx () + "]";
+		}
+		return sequence + " " + type + " " + transaction.getHash ();
+	}
+}
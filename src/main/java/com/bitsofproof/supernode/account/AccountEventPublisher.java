@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+public class AccountEventPublisher extends SequencedEventPublisher<AccountEventPublisher.Event> implements AccountListener
+{
+	public static class Event
+	{
+		private final AccountManager account;
+		private final Transaction transaction;
+
+		public Event (AccountManager account, Transaction transaction)
+		{
+			this.account = account;
+			this.transaction = transaction;
+		}
+
+		public AccountManager getAccount ()
+		{
+			return account;
+		}
+
+		public Transaction getTransaction ()
+		{
+			return transaction;
+		}
+	}
+
+	public AccountEventPublisher (int replayCapacity, int bufferLimit)
+	{
+		super (replayCapacity, bufferLimit);
+	}
+
+	@Override
+	public void accountChanged (AccountManager account, Transaction t)
+	{
+		publish (new Event (account, t));
+	}
+}
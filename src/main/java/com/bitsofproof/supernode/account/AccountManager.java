@@ -15,6 +15,12 @@
  */
 package com.bitsofproof.supernode.account;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.bitsofproof.supernode.api.Address;
@@ -22,6 +28,7 @@ import com.bitsofproof.supernode.api.BCSAPI;
 import com.bitsofproof.supernode.api.BCSAPIException;
 import com.bitsofproof.supernode.api.RejectListener;
 import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
 import com.bitsofproof.supernode.api.TransactionListener;
 import com.bitsofproof.supernode.api.TransactionOutput;
 
@@ -40,6 +47,48 @@ public interface AccountManager extends TransactionListener, RejectListener
 
 		public long getTotal ();
 
+		// stores that can count without a copy should override
+		public default int size ()
+		{
+			return getUTXO ().size ();
+		}
+
+	}
+
+	public interface TransactionStore
+	{
+		public void put (Transaction t);
+
+		public Transaction get (String hash);
+
+		public Transaction remove (String hash);
+
+		public boolean contains (String hash);
+
+		public Collection<Transaction> getTransactions ();
+
+		// stores that keep everything in memory hold every transaction they contain
+		public default boolean isResident (String hash)
+		{
+			return contains (hash);
+		}
+
+		// transactions held in memory, unconfirmed transactions are always resident
+		public default Collection<Transaction> getResident ()
+		{
+			return getTransactions ();
+		}
+
+		// stores without a memory budget are never over it
+		public default boolean isOverBudget ()
+		{
+			return false;
+		}
+
+		// candidates are in preferred order of eviction, the store evicts as many as its budget requires
+		public default void compact (List<Transaction> candidates)
+		{
+		}
 	}
 
 	public void sync (BCSAPI api) throws BCSAPIException;
@@ -54,6 +103,118 @@ public interface AccountManager extends TransactionListener, RejectListener
 
 	public long getBalance ();
 
+	// value of outputs with at least the given number of confirmations, 0 includes unconfirmed outputs as getBalance ()
+	// the defaults of this and getBalanceAt scan the transactions, accounts with height sums override
+	public default long getBalance (int minConfirmations)
+	{
+		if ( minConfirmations <= 0 )
+		{
+			return getBalance ();
+		}
+		Map<String, Transaction> byHash = new HashMap<> ();
+		for ( Transaction t : getTransactions () )
+		{
+			byHash.put (t.getHash (), t);
+		}
+		int limit = getChainHeight () - minConfirmations + 1;
+		long sum = 0;
+		for ( TransactionOutput o : getConfirmedOutputs () )
+		{
+			Transaction t = byHash.get (o.getTxHash ());
+			if ( t != null && t.getBlockHash () != null && t.getHeight () <= limit )
+			{
+				sum += o.getValue ();
+			}
+		}
+		return sum;
+	}
+
+	// balance as of the block at the given height, i.e. net value of transactions confirmed up to that height
+	public default long getBalanceAt (int height)
+	{
+		Map<String, Transaction> byHash = new HashMap<> ();
+		for ( Transaction t : getTransactions () )
+		{
+			byHash.put (t.getHash (), t);
+		}
+		long sum = 0;
+		for ( Transaction t : byHash.values () )
+		{
+			if ( t.getBlockHash () == null || t.getHeight () > height )
+			{
+				continue;
+			}
+			for ( TransactionOutput o : t.getOutputs () )
+			{
+				if ( isOwnAddress (o.getOutputAddress ()) )
+				{
+					sum += o.getValue ();
+				}
+			}
+			for ( TransactionInput input : t.getInputs () )
+			{
+				Transaction prev = byHash.get (input.getSourceHash ());
+				if ( prev != null )
+				{
+					TransactionOutput o = prev.getOutputs ().get ((int) input.getIx ());
+					if ( isOwnAddress (o.getOutputAddress ()) )
+					{
+						sum -= o.getValue ();
+					}
+				}
+			}
+		}
+		return sum;
+	}
+
+	// totals of the outputs held for a single address, by pool
+	// the defaults of this and getOutputs (Address) scan the pools, accounts with an address index override
+	public default AddressBalance getBalance (Address address)
+	{
+		long[] sums = new long[4];
+		int i = 0;
+		for ( Set<TransactionOutput> pool : Arrays.asList (getConfirmedOutputs (), getChangeOutputs (), getReceivingOutputs (), getSendingOutputs ()) )
+		{
+			for ( TransactionOutput o : pool )
+			{
+				if ( address.equals (o.getOutputAddress ()) )
+				{
+					sums[i] += o.getValue ();
+				}
+			}
+			++i;
+		}
+		return new AddressBalance (sums[0], sums[1], sums[2], sums[3]);
+	}
+
+	// spendable outputs of a single address: confirmed, change and receiving
+	public default Set<TransactionOutput> getOutputs (Address address)
+	{
+		Set<TransactionOutput> outputs = new HashSet<> ();
+		for ( Set<TransactionOutput> pool : Arrays.asList (getConfirmedOutputs (), getChangeOutputs (), getReceivingOutputs ()) )
+		{
+			for ( TransactionOutput o : pool )
+			{
+				if ( address.equals (o.getOutputAddress ()) )
+				{
+					outputs.add (o);
+				}
+			}
+		}
+		return outputs;
+	}
+
+	// accounts that do not follow the trunk report 0, so getBalance (int) counts no confirmed outputs
+	public default int getChainHeight ()
+	{
+		return 0;
+	}
+
+	// height of the trunk that confirmations are counted from, kept current by ConfirmationManager
+	public default void setChainHeight (int height)
+	{
+	}
+
 	public long getConfirmed ();
 
 	public long getSending ();
@@ -62,6 +223,12 @@ public interface AccountManager extends TransactionListener, RejectListener
 
 	public long getChange ();
 
+	// number of spendable outputs: confirmed, change and receiving
+	public default int getOutputCount ()
+	{
+		return getConfirmedOutputs ().size () + getChangeOutputs ().size () + getReceivingOutputs ().size ();
+	}
+
 	public Set<TransactionOutput> getConfirmedOutputs ();
 
 	public Set<TransactionOutput> getSendingOutputs ();
@@ -74,6 +241,48 @@ public interface AccountManager extends TransactionListener, RejectListener
 
 	public boolean isKnownTransaction (Transaction t);
 
+	// a known transaction lost its confirmation outside of process, e.g. on reorg
+	// accounts that keep no per height state have nothing to update
+	public default void updateConfirmation (Transaction t)
+	{
+	}
+
+	// newest first, unconfirmed transactions lead; pass the next cursor of a page to continue, null to start
+	public default TransactionPage getTransactions (String cursor, int limit)
+	{
+		return getTransactionsByHeight (0, Integer.MAX_VALUE, cursor, limit);
+	}
+
+	// heights are inclusive, to include unconfirmed transactions use Integer.MAX_VALUE as upper bound
+	// the default sorts all transactions for each page, accounts with an index override
+	public default TransactionPage getTransactionsByHeight (int from, int to, String cursor, int limit)
+	{
+		return TransactionPage.scan (getTransactions (), false, from, to, cursor, limit);
+	}
+
+	// block time, or time first seen for unconfirmed transactions, bounds in seconds inclusive
+	public default TransactionPage getTransactionsByTime (long from, long to, String cursor, int limit)
+	{
+		return TransactionPage.scan (getTransactions (), true, from, to, cursor, limit);
+	}
+
+	// give the store of the account a chance to move old history out of memory
+	public default void compactHistory (int height)
+	{
+	}
+
+	// accounts without a change log never advance the sequence
+	public default long getChangeSequence ()
+	{
+		return 0;
+	}
+
+	// changes in sequence order after the given sequence number, null if the caller has to read full state instead
+	public default List<AccountChange> getChangesSince (long sequence)
+	{
+		return null;
+	}
+
 	public void addAccountListener (AccountListener listener);
 
 	public void removeAccountListener (AccountListener listener);
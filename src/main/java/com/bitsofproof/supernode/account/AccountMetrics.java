@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+// durations are in nanoseconds, type is the simple class name of the reporting account manager or pipeline stage
+public interface AccountMetrics
+{
+	public static final AccountMetrics NOOP = new AccountMetrics ()
+	{
+		@Override
+		public void register (String type, AccountManager account)
+		{
+		}
+
+		@Override
+		public void unregister (String type, AccountManager account)
+		{
+		}
+
+		@Override
+		public void transactionProcessed (String type, boolean modified, long duration)
+		{
+		}
+
+		@Override
+		public void lockWaited (String type, long duration)
+		{
+		}
+
+		@Override
+		public void blockApplied (String type, int transactions, long duration)
+		{
+		}
+
+		@Override
+		public void reorg (String type, int depth)
+		{
+		}
+
+		@Override
+		public void listenerDispatched (String type, long duration)
+		{
+		}
+
+		@Override
+		public void paymentRequestPaid (String type, long sinceFirstSeen)
+		{
+		}
+
+		@Override
+		public void paymentRequestConfirmed (String type, long sinceFirstSeen)
+		{
+		}
+	};
+
+	// UTXO sizes and totals of registered accounts are read when the metrics are read
+	public void register (String type, AccountManager account);
+
+	public void unregister (String type, AccountManager account);
+
+	public void transactionProcessed (String type, boolean modified, long duration);
+
+	public void lockWaited (String type, long duration);
+
+	public void blockApplied (String type, int transactions, long duration);
+
+	public void reorg (String type, int depth);
+
+	public void listenerDispatched (String type, long duration);
+
+	public void paymentRequestPaid (String type, long sinceFirstSeen);
+
+	public void paymentRequestConfirmed (String type, long sinceFirstSeen);
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+// totals of the outputs an account holds for one address, by pool
+public class AddressBalance
+{
+	public static final AddressBalance EMPTY = new AddressBalance (0, 0, 0, 0);
+
+	private final long confirmed;
+	private final long change;
+	private final long receiving;
+	private final long sending;
+
+	public AddressBalance (long confirmed, long change, long receiving, long sending)
+	{
+		this.confirmed = confirmed;
+		this.change = change;
+		this.receiving = receiving;
+		this.sending = sending;
+	}
+
+	public long getConfirmed ()
+	{
+		return confirmed;
+	}
+
+	public long getChange ()
+	{
+		return change;
+	}
+
+	public long getReceiving ()
+	{
+		return receiving;
+	}
+
+	public long getSending ()
+	{
+		return sending;
+	}
+
+	// spendable: confirmed, change and receiving, as AccountManager.getBalance ()
+	public long getBalance ()
+	{
+		return confirmed + change + receiving;
+	}
+
+	public AddressBalance add (AddressBalance other)
+	{
+		return new AddressBalance (confirmed + other.confirmed, change + other.change, receiving + other.receiving, sending + other.sending);
+	}
+}
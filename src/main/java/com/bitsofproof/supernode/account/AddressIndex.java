@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.TransactionOutput;
+
+// outputs of the pools of an account by address, with running totals per pool
+class AddressIndex
+{
+	private static class Entry
+	{
+		private final InMemoryUTXO[] outputs = new InMemoryUTXO[AccountChange.Pool.values ().length];
+		private final long[] totals = new long[outputs.length];
+		private int size;
+	}
+
+	private final Map<Address, Entry> entries = new HashMap<> ();
+
+	public void add (AccountChange.Pool pool, TransactionOutput out)
+	{
+		Address address = out.getOutputAddress ();
+		if ( address == null )
+		{
+			return;
+		}
+		Entry e = entries.get (address);
+		if ( e == null )
+		{
+			e = new Entry ();
+			entries.put (address, e);
+		}
+		InMemoryUTXO outputs = e.outputs[pool.ordinal ()];
+		if ( outputs == null )
+		{
+			outputs = e.outputs[pool.ordinal ()] = new InMemoryUTXO ();
+		}
+		if ( outputs.add (out) )
+		{
+			e.totals[pool.ordinal ()] += out.getValue ();
+			++e.size;
+		}
+	}
+
+	public void remove (AccountChange.Pool pool, TransactionOutput out)
+	{
+		Address address = out.getOutputAddress ();
+		Entry e = address == null ? null : entries.get (address);
+		if ( e == null || e.outputs[pool.ordinal ()] == null )
+		{
+			return;
+		}
+		if ( e.outputs[pool.ordinal ()].remove (out.getTxHash (), out.getIx ()) != null )
+		{
+			e.totals[pool.ordinal ()] -= out.getValue ();
+			if ( --e.size == 0 )
+			{
+				entries.remove (address);
+			}
+		}
+	}
+
+	public AddressBalance getBalance (Address address)
+	{
+		Entry e = entries.get (address);
+		if ( e == null )
+		{
+			return AddressBalance.EMPTY;
+		}
+		return new AddressBalance (e.totals[AccountChange.Pool.CONFIRMED.ordinal ()], e.totals[AccountChange.Pool.CHANGE.ordinal ()],
+				e.totals[AccountChange.Pool.RECEIVING.ordinal ()], e.totals[AccountChange.Pool.SENDING.ordinal ()]);
+	}
+
+	// spendable outputs: confirmed, change and receiving
+	public Set<TransactionOutput> getOutputs (Address address)
+	{
+		Set<TransactionOutput> outs = new HashSet<> ();
+		Entry e = entries.get (address);
+		if ( e != null )
+		{
+			for ( AccountChange.Pool pool : AccountChange.Pool.values () )
+			{
+				if ( pool != AccountChange.Pool.SENDING && e.outputs[pool.ordinal ()] != null )
+				{
+					outs.addAll (e.outputs[pool.ordinal ()].getUTXO ());
+				}
+			}
+		}
+		return outs;
+	}
+}
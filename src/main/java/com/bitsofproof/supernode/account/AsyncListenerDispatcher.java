@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+// wraps listeners so that each is called on an executor through its own bounded queue, in the order of events
+public class AsyncListenerDispatcher
+{
+	private static final Logger log = LoggerFactory.getLogger (AsyncListenerDispatcher.class);
+
+	public enum Backpressure
+	{
+		BLOCK, DROP_OLDEST, COALESCE
+	};
+
+	private final Executor executor;
+	private final int capacity;
+	private final Backpressure backpressure;
+
+	private final Map<Object, ListenerQueue> queues = new ConcurrentHashMap<> ();
+
+	public AsyncListenerDispatcher (Executor executor, int capacity, Backpressure backpressure)
+	{
+		this.executor = executor;
+		this.capacity = capacity;
+		this.backpressure = backpressure;
+	}
+
+	private static abstract class Event implements Runnable
+	{
+		// events of the same key supersede each other, null if the event must always be delivered
+		private final Object key;
+		private boolean cancelled;
+
+		public Event (Object key)
+		{
+			this.key = key;
+		}
+	}
+
+	public class ListenerQueue
+	{
+		private final ArrayDeque<Event> events = new ArrayDeque<> ();
+		// latest queued event by key
+		private final Map<Object, Event> pending = new HashMap<> ();
+		private int live;
+		private int cancelled;
+		private boolean scheduled;
+		private long delivered;
+		private long dropped;
+		private long coalesced;
+
+		private final Runnable drain = new Runnable ()
+		{
+			@Override
+			public void run ()
+			{
+				while ( true )
+				{
+					Event e;
+					synchronized ( ListenerQueue.this )
+					{
+						e = poll ();
+						if ( e == null )
+						{
+							scheduled = false;
+							return;
+						}
+						ListenerQueue.this.notifyAll ();
+					}
+					try
+					{
+						e.run ();
+					}
+					catch ( Exception ex )
+					{
+						log.error ("Uncaught exception in listener", ex);
+					}
+					synchronized ( ListenerQueue.this )
+					{
+						++delivered;
+					}
+				}
+			}
+		};
+
+		private Event poll ()
+		{
+			Event e = events.poll ();
+			while ( e != null && e.cancelled )
+			{
+				--cancelled;
+				e = events.poll ();
+			}
+			if ( e != null )
+			{
+				--live;
+				if ( e.key != null && pending.get (e.key) == e )
+				{
+					pending.remove (e.key);
+				}
+			}
+			return e;
+		}
+
+		private void offer (Event e)
+		{
+			synchronized ( this )
+			{
+				while ( live >= capacity )
+				{
+					if ( backpressure == Backpressure.DROP_OLDEST )
+					{
+						poll ();
+						++dropped;
+					}
+					else if ( backpressure == Backpressure.COALESCE && e.key != null && pending.containsKey (e.key) )
+					{
+						// the superseded event gives up its place, the new one queues at the tail to keep the order of events
+						cancel (pending.remove (e.key));
+						++coalesced;
+					}
+					else
+					{
+						// block, also if there is nothing to coalesce with
+						try
+						{
+							wait ();
+						}
+						catch ( InterruptedException ie )
+						{
+							Thread.currentThread ().interrupt ();
+							++dropped;
+							return;
+						}
+					}
+				}
+				events.add (e);
+				++live;
+				if ( e.key != null )
+				{
+					pending.put (e.key, e);
+				}
+				if ( scheduled )
+				{
+					return;
+				}
+				scheduled = true;
+			}
+			executor.execute (drain);
+		}
+
+		// cancelled events stay in the queue until drained, unless they outnumber the live ones
+		private void cancel (Event e)
+		{
+			e.cancelled = true;
+			--live;
+			if ( ++cancelled > capacity )
+			{
+				Iterator<Event> i = events.iterator ();
+				while ( i.hasNext () )
+				{
+					if ( i.next ().cancelled )
+					{
+						i.remove ();
+					}
+				}
+				cancelled = 0;
+			}
+		}
+
+		public synchronized int getDepth ()
+		{
+			return live;
+		}
+
+		public synchronized long getDelivered ()
+		{
+			return delivered;
+		}
+
+		public synchronized long getDropped ()
+		{
+			return dropped;
+		}
+
+		public synchronized long getCoalesced ()
+		{
+			return coalesced;
+		}
+	}
+
+	public AccountListener wrap (final AccountListener listener)
+	{
+		final ListenerQueue queue = new ListenerQueue ();
+		queues.put (listener, queue);
+		return new AccountListener ()
+		{
+			@Override
+			public void accountChanged (final AccountManager account, final Transaction t)
+			{
+				queue.offer (new Event (Arrays.asList (account, t.getHash ()))
+				{
+					@Override
+					public void run ()
+					{
+						listener.accountChanged (account, t);
+					}
+				});
+			}
+		};
+	}
+
+	public ConfirmationListener wrap (final ConfirmationListener listener)
+	{
+		final ListenerQueue queue = new ListenerQueue ();
+		queues.put (listener, queue);
+		return new ConfirmationListener ()
+		{
+			@Override
+			public void confirmed (final Transaction t)
+			{
+				queue.offer (new Event (t.getHash ())
+				{
+					@Override
+					public void run ()
+					{
+						listener.confirmed (t);
+					}
+				});
+			}
+
+			@Override
+			public void newHeight (final int height)
+			{
+				// every height is delivered, listeners may act on a particular one
+				queue.offer (new Event (null)
+				{
+					@Override
+					public void run ()
+					{
+						listener.newHeight (height);
+					}
+				});
+			}
+		};
+	}
+
+	public void unwrap (Object listener)
+	{
+		queues.remove (listener);
+	}
+
+	public ListenerQueue getQueue (Object listener)
+	{
+		return queues.get (listener);
+	}
+
+	public int getQueueDepth ()
+	{
+		int depth = 0;
+		for ( ListenerQueue q : queues.values () )
+		{
+			depth += q.getDepth ();
+		}
+		return depth;
+	}
+}
@@ -17,14 +17,20 @@ package com.bitsofproof.supernode.account;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.bitsofproof.supernode.api.Address;
 import com.bitsofproof.supernode.api.Transaction;
 import com.bitsofproof.supernode.api.TransactionInput;
 import com.bitsofproof.supernode.api.TransactionOutput;
@@ -33,16 +39,55 @@ public abstract class BaseAccountManager implements AccountManager
 {
 	private static final Logger log = LoggerFactory.getLogger (BaseAccountManager.class);
 
-	private UTXO confirmed = createConfirmedUTXO ();
-	private UTXO change = createChangeUTXO ();
-	private UTXO receiving = createReceivingUTXO ();
-	private UTXO sending = createSendingUTXO ();
+	private static final int CHANGE_LOG_SIZE = 10000;
+	private static final int SEEN_CACHE_SIZE = 10000;
 
-	private final Set<AccountListener> accountListener = Collections.synchronizedSet (new HashSet<AccountListener> ());
-	private final Map<String, Transaction> transactions = new HashMap<> ();
+	private ChangeLog changeLog = new ChangeLog (CHANGE_LOG_SIZE);
+	private AddressIndex addressIndex = new AddressIndex ();
+
+	private UTXO confirmed = new TrackedUTXO (AccountChange.Pool.CONFIRMED, createConfirmedUTXO ());
+	private UTXO change = new TrackedUTXO (AccountChange.Pool.CHANGE, createChangeUTXO ());
+	private UTXO receiving = new TrackedUTXO (AccountChange.Pool.RECEIVING, createReceivingUTXO ());
+	private UTXO sending = new TrackedUTXO (AccountChange.Pool.SENDING, createSendingUTXO ());
+
+	private final Set<AccountListener> accountListener = new CopyOnWriteArraySet<> ();
+	private TransactionStore transactions = createTransactionStore ();
+	private final HistoryIndex history = new HistoryIndex ();
+	// unconfirmed transactions by the hashes of the transactions they spend from
+	private final Map<String, Set<String>> spenders = new HashMap<> ();
+
+	// confirming block hash, empty if unconfirmed, of recently stored transactions; re-processing in the same state is a no-op
+	// the map allocates its table on first put, so accounts that never process a transaction do not pay for it
+	private int seenCacheSize = SEEN_CACHE_SIZE;
+	private final Map<String, String> seen = new LinkedHashMap<String, String> (16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<String, String> eldest)
+		{
+			return size () > seenCacheSize;
+		}
+	};
+	private int historyConfirmations = 100;
+	// an attempt of compactHistory that evicted nothing is not repeated until new candidates are possible
+	private int idleHeight = -1;
+	private int idleResident;
+
+	// unspent confirmed outputs by height of confirmation, and net value of confirmed transactions by height
+	private HeightBuckets confirmedByHeight = new HeightBuckets ();
+	private final HeightBuckets balanceByHeight = new HeightBuckets ();
+	// net values of resident confirmed transactions, those of evicted transactions are recomputed if ever retracted
+	private final Map<String, Long> netValues = new HashMap<> ();
+	// confirmed transactions by the hashes of their inputs' sources that were not known when their net value was added
+	private final Map<String, Set<String>> unresolved = new HashMap<> ();
+	private int chainHeight;
 
 	private long created;
 
+	private AccountMetrics metrics = AccountMetrics.NOOP;
+	private String metricsType = getClass ().getSimpleName ();
+
 	@Override
 	public long getCreated ()
 	{
@@ -74,43 +119,447 @@ public abstract class BaseAccountManager implements AccountManager
 		return new InMemoryUTXO ();
 	}
 
+	protected TransactionStore createTransactionStore ()
+	{
+		return new InMemoryTransactionStore ();
+	}
+
+	public synchronized void setTransactionStore (TransactionStore store)
+	{
+		for ( Transaction t : transactions.getTransactions () )
+		{
+			store.put (t);
+		}
+		transactions = store;
+	}
+
+	public synchronized int getSeenCacheSize ()
+	{
+		return seenCacheSize;
+	}
+
+	// transactions remembered to skip repeated processing, 0 disables the cache
+	public synchronized void setSeenCacheSize (int size)
+	{
+		seenCacheSize = size;
+		Iterator<String> i = seen.keySet ().iterator ();
+		while ( seen.size () > size )
+		{
+			i.next ();
+			i.remove ();
+		}
+	}
+
+	public int getHistoryConfirmations ()
+	{
+		return historyConfirmations;
+	}
+
+	// transactions with at least this many confirmations and no unspent output of the account may leave memory
+	public void setHistoryConfirmations (int historyConfirmations)
+	{
+		this.historyConfirmations = historyConfirmations;
+	}
+
+	@Override
+	public synchronized void compactHistory (int height)
+	{
+		if ( !transactions.isOverBudget () )
+		{
+			return;
+		}
+		int resident = transactions.getResident ().size ();
+		if ( idleHeight >= 0 && height - idleHeight < historyConfirmations && resident <= idleResident )
+		{
+			return;
+		}
+		List<Transaction> candidates = new ArrayList<> ();
+		for ( Transaction t : transactions.getResident () )
+		{
+			if ( t.getBlockHash () != null && height - t.getHeight () + 1 >= historyConfirmations && isSpent (t) )
+			{
+				candidates.add (t);
+			}
+		}
+		// oldest first
+		Collections.sort (candidates, new Comparator<Transaction> ()
+		{
+			@Override
+			public int compare (Transaction t1, Transaction t2)
+			{
+				return Integer.compare (t1.getHeight (), t2.getHeight ());
+			}
+		});
+		transactions.compact (candidates);
+		if ( transactions.getResident ().size () == resident )
+		{
+			idleHeight = height;
+			idleResident = resident;
+			return;
+		}
+		idleHeight = -1;
+		for ( Transaction t : candidates )
+		{
+			if ( !transactions.isResident (t.getHash ()) )
+			{
+				netValues.remove (t.getHash ());
+				forgetUnresolved (t);
+			}
+		}
+	}
+
+	private boolean isSpent (Transaction t)
+	{
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			if ( confirmed.get (t.getHash (), o.getIx ()) != null || change.get (t.getHash (), o.getIx ()) != null
+					|| receiving.get (t.getHash (), o.getIx ()) != null )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
 	protected synchronized void reset ()
 	{
-		confirmed = createConfirmedUTXO ();
-		change = createChangeUTXO ();
-		receiving = createReceivingUTXO ();
-		sending = createSendingUTXO ();
+		confirmed = new TrackedUTXO (AccountChange.Pool.CONFIRMED, createConfirmedUTXO ());
+		change = new TrackedUTXO (AccountChange.Pool.CHANGE, createChangeUTXO ());
+		receiving = new TrackedUTXO (AccountChange.Pool.RECEIVING, createReceivingUTXO ());
+		sending = new TrackedUTXO (AccountChange.Pool.SENDING, createSendingUTXO ());
+		addressIndex = new AddressIndex ();
+		seen.clear ();
+		confirmedByHeight = new HeightBuckets ();
+		changeLog.invalidate ();
+	}
+
+	// records every modification of an output set in the change log and the address index
+	private class TrackedUTXO implements UTXO
+	{
+		private final AccountChange.Pool pool;
+		private final UTXO utxo;
+
+		public TrackedUTXO (AccountChange.Pool pool, UTXO utxo)
+		{
+			this.pool = pool;
+			this.utxo = utxo;
+		}
+
+		@Override
+		public boolean add (TransactionOutput out)
+		{
+			boolean added = utxo.add (out);
+			if ( added )
+			{
+				changeLog.append (AccountChange.Type.OUTPUT_ADDED, pool, out, null);
+				addressIndex.add (pool, out);
+			}
+			return added;
+		}
+
+		@Override
+		public Set<TransactionOutput> getUTXO ()
+		{
+			return utxo.getUTXO ();
+		}
+
+		@Override
+		public TransactionOutput get (String tx, long ix)
+		{
+			return utxo.get (tx, ix);
+		}
+
+		@Override
+		public TransactionOutput remove (String tx, long ix)
+		{
+			TransactionOutput out = utxo.remove (tx, ix);
+			if ( out != null )
+			{
+				changeLog.append (AccountChange.Type.OUTPUT_REMOVED, pool, out, null);
+				addressIndex.remove (pool, out);
+			}
+			return out;
+		}
+
+		@Override
+		public long getTotal ()
+		{
+			return utxo.getTotal ();
+		}
+
+		@Override
+		public int size ()
+		{
+			return utxo.size ();
+		}
+	}
+
+	private void putTransaction (Transaction t)
+	{
+		// spenders stored before this transaction counted its outputs as foreign, so their net values are recomputed
+		List<Transaction> waiting = new ArrayList<> ();
+		Set<String> s = unresolved.remove (t.getHash ());
+		if ( s != null )
+		{
+			for ( String hash : s )
+			{
+				Transaction spender = transactions.get (hash);
+				if ( spender != null )
+				{
+					retractNetValue (spender);
+					waiting.add (spender);
+				}
+			}
+		}
+		retractNetValue (t);
+		transactions.put (t);
+		addNetValue (t);
+		for ( Transaction spender : waiting )
+		{
+			addNetValue (spender);
+		}
+		history.add (t);
+		updateSpenders (t, t.getBlockHash () == null);
+		seen.put (t.getHash (), getConfirmationState (t));
+		changeLog.append (AccountChange.Type.TRANSACTION_ADDED, null, null, t);
+	}
+
+	private Transaction removeTransaction (String hash)
+	{
+		Transaction t = transactions.remove (hash);
+		if ( t != null )
+		{
+			retractNetValue (t);
+			forgetUnresolved (t);
+			history.remove (hash);
+			updateSpenders (t, false);
+			seen.remove (hash);
+			changeLog.append (AccountChange.Type.TRANSACTION_REMOVED, null, null, t);
+		}
+		return t;
+	}
+
+	private void updateSpenders (Transaction t, boolean unconfirmed)
+	{
+		for ( TransactionInput input : t.getInputs () )
+		{
+			Set<String> s = spenders.get (input.getSourceHash ());
+			if ( unconfirmed )
+			{
+				if ( s == null )
+				{
+					s = new HashSet<> ();
+					spenders.put (input.getSourceHash (), s);
+				}
+				s.add (t.getHash ());
+			}
+			else if ( s != null && s.remove (t.getHash ()) && s.isEmpty () )
+			{
+				spenders.remove (input.getSourceHash ());
+			}
+		}
+	}
+
+	protected ChangeLog getChangeLog ()
+	{
+		return changeLog;
+	}
+
+	public int getChangeLogSize ()
+	{
+		return getChangeLog ().getCapacity ();
+	}
+
+	// changes kept for getChangesSince, the log is allocated only once it is read
+	public void setChangeLogSize (int size)
+	{
+		getChangeLog ().setCapacity (size);
+	}
+
+	// parts of a composite account write into the log of the composite
+	protected synchronized void setChangeLog (ChangeLog changeLog)
+	{
+		this.changeLog = changeLog;
+	}
+
+	@Override
+	public long getChangeSequence ()
+	{
+		return changeLog.getSequence ();
+	}
+
+	@Override
+	public List<AccountChange> getChangesSince (long sequence)
+	{
+		return changeLog.getChangesSince (sequence);
+	}
+
+	public AccountMetrics getMetrics ()
+	{
+		return metrics;
+	}
+
+	public void setMetrics (AccountMetrics metrics)
+	{
+		this.metrics.unregister (metricsType, this);
+		setMetrics (metrics, metricsType);
+		metrics.register (metricsType, this);
+	}
+
+	// parts of a composite account report under the type of the composite but do not register for gauges
+	protected void setMetrics (AccountMetrics metrics, String type)
+	{
+		this.metrics = metrics;
+		this.metricsType = type;
 	}
 
-	public synchronized boolean updateWithTransaction (Transaction t)
+	protected String getMetricsType ()
 	{
+		return metricsType;
+	}
+
+	public boolean updateWithTransaction (Transaction t)
+	{
+		FlightRecorderEvents.UpdateWithTransaction event = FlightRecorderEvents.updateWithTransaction ();
 		boolean modified = false;
-		if ( t.getOffendingTx () != null )
+		List<Transaction> reverted = null;
+		long start = System.nanoTime ();
+		synchronized ( this )
 		{
-			modified = updateWithDoubleSpent (t);
+			long acquired = System.nanoTime ();
+			metrics.lockWaited (metricsType, acquired - start);
+			if ( t.getOffendingTx () != null )
+			{
+				reverted = new ArrayList<> ();
+				modified = updateWithDoubleSpent (t, reverted);
+			}
+			else if ( t.isExpired () )
+			{
+				reverted = new ArrayList<> ();
+				modified = updateWithExpiredTransaction (t, reverted);
+			}
+			else if ( !getConfirmationState (t).equals (seen.get (t.getHash ())) )
+			{
+				modified = updateWithRegularTransaction (t);
+			}
+			metrics.transactionProcessed (metricsType, modified, System.nanoTime () - acquired);
 		}
-		else if ( t.isExpired () )
+		if ( event != null )
 		{
-			modified = updateWithExpiredTransaction (t);
+			event.finish (metricsType, t, modified);
 		}
-		else
+		if ( reverted != null && !reverted.isEmpty () )
 		{
-			modified = updateWithRegularTransaction (t);
+			reverted (reverted);
 		}
 		return modified;
 	}
 
-	private boolean updateWithDoubleSpent (Transaction t)
+	private static String getConfirmationState (Transaction t)
+	{
+		return t.getBlockHash () == null ? "" : t.getBlockHash ();
+	}
+
+	private boolean updateWithDoubleSpent (Transaction t, List<Transaction> reverted)
 	{
 		removeOutput (t);
-		return transactions.remove (t.getHash ()) != null;
+		boolean modified = removeTransaction (t.getHash ()) != null;
+		revertSpenders (t.getHash (), reverted);
+		return modified;
 	}
 
-	private boolean updateWithExpiredTransaction (Transaction t)
+	private boolean updateWithExpiredTransaction (Transaction t, List<Transaction> reverted)
 	{
-		log.trace ("Remove expired " + t.getHash ());
+		log.trace ("Remove expired {}", t.getHash ());
 		removeOutput (t);
-		return transactions.remove (t.getHash ()) != null;
+		boolean modified = removeTransaction (t.getHash ()) != null;
+		revertSpenders (t.getHash (), reverted);
+		return modified;
+	}
+
+	// transactions spending outputs of an invalid transaction are invalid too
+	private void revertSpenders (String hash, List<Transaction> reverted)
+	{
+		Set<String> s = spenders.get (hash);
+		if ( s == null )
+		{
+			return;
+		}
+		// revert removes from the index
+		for ( String spender : new ArrayList<> (s) )
+		{
+			Transaction t = transactions.get (spender);
+			if ( t != null && t.getBlockHash () == null )
+			{
+				log.trace ("Revert {} spending invalid {}", t.getHash (), hash);
+				revert (t, reverted);
+			}
+		}
+	}
+
+	// transactions that were removed with an invalid transaction, called without holding the lock of the account
+	protected void reverted (List<Transaction> reverted)
+	{
+		for ( Transaction t : reverted )
+		{
+			notifyListener (t);
+		}
+	}
+
+	private void revert (Transaction revert, List<Transaction> reverted)
+	{
+		revertSpenders (revert.getHash (), reverted);
+		removeOutput (revert);
+		removeTransaction (revert.getHash ());
+		for ( TransactionInput input : revert.getInputs () )
+		{
+			Transaction prev = transactions.get (input.getSourceHash ());
+			if ( prev == null )
+			{
+				continue;
+			}
+			if ( prev.getBlockHash () != null )
+			{
+				addConfirmed (prev.getOutputs ().get ((int) input.getIx ()), prev.getHeight ());
+			}
+			else
+			{
+				boolean spend = false;
+				for ( TransactionInput pin : prev.getInputs () )
+				{
+					if ( transactions.contains (pin.getSourceHash ()) )
+					{
+						spend = true;
+						break;
+					}
+				}
+				if ( spend )
+				{
+					change.add (prev.getOutputs ().get ((int) input.getIx ()));
+				}
+				else
+				{
+					receiving.add (prev.getOutputs ().get ((int) input.getIx ()));
+				}
+			}
+		}
+		reverted.add (revert);
+	}
+
+	protected synchronized List<Transaction> revert (String hash)
+	{
+		List<Transaction> reverted = new ArrayList<> ();
+		Transaction t = transactions.get (hash);
+		if ( t != null )
+		{
+			revert (t, reverted);
+		}
+		return reverted;
+	}
+
+	protected synchronized Transaction getTransaction (String hash)
+	{
+		return transactions.get (hash);
 	}
 
 	private boolean updateWithRegularTransaction (Transaction t)
@@ -119,11 +568,24 @@ public abstract class BaseAccountManager implements AccountManager
 		boolean modified = processOutputs (t, spending);
 		if ( modified || spending )
 		{
-			transactions.put (t.getHash (), t);
+			putTransaction (t);
+		}
+		else if ( isConfirmationChanged (t) )
+		{
+			// e.g. a spend without outputs back to the account confirms, only its sending outputs were dropped
+			putTransaction (t);
+			modified = true;
 		}
 		return modified;
 	}
 
+	private boolean isConfirmationChanged (Transaction t)
+	{
+		Transaction stored = transactions.get (t.getHash ());
+		return stored != null
+				&& (history.getHeight (t.getHash ()) != HistoryIndex.getSortHeight (t) || !getConfirmationState (stored).equals (getConfirmationState (t)));
+	}
+
 	private boolean processOutputs (Transaction t, boolean spending)
 	{
 		boolean modified;
@@ -132,26 +594,25 @@ public abstract class BaseAccountManager implements AccountManager
 		{
 			removeOutput (o.getTxHash (), o.getIx ());
 
-			if ( isOwnAddress (o.getOutputAddress ()) )
+			Address address = o.getOutputAddress ();
+			if ( isOwnAddress (address) )
 			{
 				if ( t.getBlockHash () != null )
 				{
-					modified = confirmed.add (o);
-					log.trace ("Confirmed " + t.getHash () + " [" + o.getIx () + "] (" + o.getOutputAddress () + ") " + o.getValue ());
+					modified = addConfirmed (o, t.getHeight ());
+					traceOutput ("Confirmed", o, address);
 				}
 				else
 				{
 					if ( spending )
 					{
 						modified = change.add (o);
-						log.trace ("Change " + t.getHash () + " [" + o.getIx () + "] (" + o.getOutputAddress () + ") "
-								+ o.getValue ());
+						traceOutput ("Change", o, address);
 					}
 					else
 					{
 						modified = receiving.add (o);
-						log.trace ("Receiving " + t.getHash () + " [" + o.getIx () + "] (" + o.getOutputAddress () + ") "
-								+ o.getValue ());
+						traceOutput ("Receiving", o, address);
 					}
 				}
 			}
@@ -160,7 +621,7 @@ public abstract class BaseAccountManager implements AccountManager
 				if ( t.getBlockHash () == null && spending )
 				{
 					modified = sending.add (o);
-					log.trace ("Sending " + t.getHash () + " [" + o.getIx () + "] (" + o.getOutputAddress () + ") " + o.getValue ());
+					traceOutput ("Sending", o, address);
 				}
 			}
 		}
@@ -173,24 +634,24 @@ public abstract class BaseAccountManager implements AccountManager
 		for ( TransactionInput input : t.getInputs () )
 		{
 			TransactionOutput spend;
-			spend = confirmed.remove (input.getSourceHash (), input.getIx ());
+			spend = removeConfirmed (input.getSourceHash (), input.getIx ());
 			if ( spend != null )
 			{
-				log.trace ("Spend settled output " + input.getSourceHash () + " [" + input.getIx () + "] " + spend.getValue ());
+				traceSpend ("settled", spend);
 			}
 			else
 			{
 				spend = change.remove (input.getSourceHash (), input.getIx ());
 				if ( spend != null )
 				{
-					log.trace ("Spend change output " + input.getSourceHash () + " [" + input.getIx () + "] " + spend.getValue ());
+					traceSpend ("change", spend);
 				}
 				else
 				{
 					spend = receiving.remove (input.getSourceHash (), input.getIx ());
 					if ( spend != null )
 					{
-						log.trace ("Spend receiving output " + input.getSourceHash () + " [" + input.getIx () + "] " + spend.getValue ());
+						traceSpend ("receiving", spend);
 					}
 				}
 			}
@@ -210,7 +671,7 @@ public abstract class BaseAccountManager implements AccountManager
 	private TransactionOutput removeOutput (String hash, long ix)
 	{
 		TransactionOutput out;
-		out = confirmed.remove (hash, ix);
+		out = removeConfirmed (hash, ix);
 		if ( out == null )
 		{
 			out = change.remove (hash, ix);
@@ -223,19 +684,189 @@ public abstract class BaseAccountManager implements AccountManager
 		{
 			out = sending.remove (hash, ix);
 		}
-		if ( out != null )
+		if ( out != null && log.isTraceEnabled () )
 		{
-			log.trace ("Remove " + out.getTxHash () + " [" + out.getIx () + "] (" + out.getOutputAddress () + ") " + out.getValue ());
+			traceOutput ("Remove", out, out.getOutputAddress ());
 		}
 		return out;
 	}
 
+	private boolean addConfirmed (TransactionOutput o, int height)
+	{
+		boolean added = confirmed.add (o);
+		if ( added )
+		{
+			confirmedByHeight.add (height, o.getValue ());
+		}
+		return added;
+	}
+
+	// the height is that of the index, since a reorg may already have unconfirmed the transaction object
+	private TransactionOutput removeConfirmed (String hash, long ix)
+	{
+		TransactionOutput o = confirmed.remove (hash, ix);
+		if ( o != null )
+		{
+			confirmedByHeight.add (history.getHeight (hash), -o.getValue ());
+		}
+		return o;
+	}
+
+	private void addNetValue (Transaction t)
+	{
+		if ( t.getBlockHash () == null )
+		{
+			return;
+		}
+		long net = getNetValue (t);
+		balanceByHeight.add (t.getHeight (), net);
+		if ( !transactions.isResident (t.getHash ()) )
+		{
+			return;
+		}
+		netValues.put (t.getHash (), net);
+		for ( TransactionInput input : t.getInputs () )
+		{
+			if ( !transactions.contains (input.getSourceHash ()) )
+			{
+				Set<String> s = unresolved.get (input.getSourceHash ());
+				if ( s == null )
+				{
+					s = new HashSet<> ();
+					unresolved.put (input.getSourceHash (), s);
+				}
+				s.add (t.getHash ());
+			}
+		}
+	}
+
+	// the height is that of the index, a transaction indexed as confirmed had its net value added
+	private void retractNetValue (Transaction t)
+	{
+		int height = history.getHeight (t.getHash ());
+		if ( height == HistoryIndex.UNCONFIRMED )
+		{
+			return;
+		}
+		Long net = netValues.remove (t.getHash ());
+		if ( net == null && !transactions.isResident (t.getHash ()) )
+		{
+			net = getNetValue (t);
+		}
+		if ( net != null )
+		{
+			balanceByHeight.add (height, -net);
+		}
+	}
+
+	// own outputs less spent own outputs of known sources
+	private long getNetValue (Transaction t)
+	{
+		long net = 0;
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			if ( isOwnAddress (o.getOutputAddress ()) )
+			{
+				net += o.getValue ();
+			}
+		}
+		for ( TransactionInput input : t.getInputs () )
+		{
+			Transaction prev = transactions.get (input.getSourceHash ());
+			if ( prev != null )
+			{
+				TransactionOutput o = prev.getOutputs ().get ((int) input.getIx ());
+				if ( isOwnAddress (o.getOutputAddress ()) )
+				{
+					net -= o.getValue ();
+				}
+			}
+		}
+		return net;
+	}
+
+	private void forgetUnresolved (Transaction t)
+	{
+		for ( TransactionInput input : t.getInputs () )
+		{
+			Set<String> s = unresolved.get (input.getSourceHash ());
+			if ( s != null && s.remove (t.getHash ()) && s.isEmpty () )
+			{
+				unresolved.remove (input.getSourceHash ());
+			}
+		}
+	}
+
+	// trace output is guarded so that processing does not allocate for it when trace is off
+	private static void traceOutput (String what, TransactionOutput o, Address address)
+	{
+		if ( log.isTraceEnabled () )
+		{
+			log.trace ("{} {} [{}] ({}) {}", what, o.getTxHash (), o.getIx (), address, o.getValue ());
+		}
+	}
+
+	private static void traceSpend (String pool, TransactionOutput o)
+	{
+		if ( log.isTraceEnabled () )
+		{
+			log.trace ("Spend {} output {} [{}] {}", pool, o.getTxHash (), o.getIx (), o.getValue ());
+		}
+	}
+
 	@Override
 	public synchronized long getBalance ()
 	{
 		return confirmed.getTotal () + change.getTotal () + receiving.getTotal ();
 	}
 
+	@Override
+	public synchronized long getBalance (int minConfirmations)
+	{
+		if ( minConfirmations <= 0 )
+		{
+			return getBalance ();
+		}
+		return confirmedByHeight.sum (chainHeight - minConfirmations + 1);
+	}
+
+	@Override
+	public synchronized long getBalanceAt (int height)
+	{
+		return balanceByHeight.sum (height);
+	}
+
+	@Override
+	public synchronized int getChainHeight ()
+	{
+		return chainHeight;
+	}
+
+	@Override
+	public synchronized void setChainHeight (int chainHeight)
+	{
+		this.chainHeight = chainHeight;
+	}
+
+	@Override
+	public synchronized AddressBalance getBalance (Address address)
+	{
+		return addressIndex.getBalance (address);
+	}
+
+	@Override
+	public synchronized Set<TransactionOutput> getOutputs (Address address)
+	{
+		return addressIndex.getOutputs (address);
+	}
+
+	// the output if it is in the confirmed or change pool
+	protected synchronized TransactionOutput getConfirmedOrChangeOutput (String hash, long ix)
+	{
+		TransactionOutput o = confirmed.get (hash, ix);
+		return o != null ? o : change.get (hash, ix);
+	}
+
 	@Override
 	public synchronized long getConfirmed ()
 	{
@@ -260,6 +891,12 @@ public abstract class BaseAccountManager implements AccountManager
 		return change.getTotal ();
 	}
 
+	@Override
+	public synchronized int getOutputCount ()
+	{
+		return confirmed.size () + change.size () + receiving.size ();
+	}
+
 	@Override
 	public synchronized Set<TransactionOutput> getConfirmedOutputs ()
 	{
@@ -298,13 +935,9 @@ public abstract class BaseAccountManager implements AccountManager
 
 	protected void notifyListener (Transaction t)
 	{
-		ArrayList<AccountListener> al = new ArrayList<> ();
-		synchronized ( accountListener )
-		{
-			al.addAll (accountListener);
-		}
-		for ( AccountListener l : al )
+		for ( AccountListener l : accountListener )
 		{
+			long start = System.nanoTime ();
 			try
 			{
 				l.accountChanged (this, t);
@@ -313,6 +946,7 @@ public abstract class BaseAccountManager implements AccountManager
 			{
 				log.error ("Uncaught exception in account listener", e);
 			}
+			metrics.listenerDispatched (metricsType, System.nanoTime () - start);
 		}
 	}
 
@@ -330,63 +964,105 @@ public abstract class BaseAccountManager implements AccountManager
 	@Override
 	public void rejected (String command, String hash, String reason, int rejectionCode)
 	{
-		Transaction revert = null;
-		synchronized ( this )
+		if ( command.equals ("tx") )
 		{
-			if ( command.equals ("tx") && transactions.containsKey (hash) )
-			{
-				revert = transactions.get (hash);
+			reverted (revert (hash));
+		}
+	}
+
+	@Override
+	public synchronized boolean isKnownTransaction (Transaction t)
+	{
+		return transactions.contains (t.getHash ());
+	}
 
-				removeOutput (revert);
+	@Override
+	public synchronized Set<Transaction> getTransactions ()
+	{
+		Set<Transaction> ts = new HashSet<Transaction> ();
+		ts.addAll (transactions.getTransactions ());
+		return ts;
+	}
 
-				for ( TransactionInput input : revert.getInputs () )
+	@Override
+	public void updateConfirmation (Transaction t)
+	{
+		if ( updateWithConfirmation (t) )
+		{
+			notifyListener (t);
+		}
+	}
+
+	// outputs of an unconfirmed transaction move back to change or receiving, as in revert
+	private synchronized boolean updateWithConfirmation (Transaction t)
+	{
+		if ( !transactions.contains (t.getHash ()) )
+		{
+			return false;
+		}
+		boolean modified = false;
+		if ( t.getBlockHash () == null )
+		{
+			boolean spend = false;
+			for ( TransactionInput input : t.getInputs () )
+			{
+				if ( transactions.contains (input.getSourceHash ()) )
+				{
+					spend = true;
+					break;
+				}
+			}
+			for ( TransactionOutput o : t.getOutputs () )
+			{
+				TransactionOutput out = removeConfirmed (t.getHash (), o.getIx ());
+				if ( out != null )
 				{
-					Transaction prev = transactions.get (input.getSourceHash ());
-					if ( prev.getBlockHash () != null )
+					modified = true;
+					if ( spend )
 					{
-						confirmed.add (prev.getOutputs ().get ((int) input.getIx ()));
+						change.add (out);
 					}
 					else
 					{
-						boolean spend = false;
-						for ( TransactionInput pin : prev.getInputs () )
-						{
-							if ( transactions.containsKey (pin.getSourceHash ()) )
-							{
-								spend = true;
-								break;
-							}
-						}
-						if ( spend )
-						{
-							change.add (prev.getOutputs ().get ((int) input.getIx ()));
-						}
-						else
-						{
-							receiving.add (prev.getOutputs ().get ((int) input.getIx ()));
-						}
+						receiving.add (out);
 					}
 				}
-				transactions.remove (hash);
 			}
 		}
-		if ( revert != null )
-		{
-			notifyListener (revert);
-		}
+		retractNetValue (t);
+		addNetValue (t);
+		history.add (t);
+		updateSpenders (t, t.getBlockHash () == null);
+		seen.put (t.getHash (), getConfirmationState (t));
+		return modified;
 	}
 
 	@Override
-	public synchronized boolean isKnownTransaction (Transaction t)
+	public TransactionPage getTransactions (String cursor, int limit)
 	{
-		return transactions.containsKey (t.getHash ());
+		return getTransactionsByHeight (0, HistoryIndex.UNCONFIRMED, cursor, limit);
 	}
 
 	@Override
-	public synchronized Set<Transaction> getTransactions ()
+	public synchronized TransactionPage getTransactionsByHeight (int from, int to, String cursor, int limit)
 	{
-		Set<Transaction> ts = new HashSet<Transaction> ();
-		ts.addAll (transactions.values ());
-		return ts;
+		return getPage (history.pageByHeight (from, to, cursor, limit), limit);
+	}
+
+	@Override
+	public synchronized TransactionPage getTransactionsByTime (long from, long to, String cursor, int limit)
+	{
+		return getPage (history.pageByTime (from, to, cursor, limit), limit);
+	}
+
+	private TransactionPage getPage (List<HistoryIndex.Key> keys, int limit)
+	{
+		List<Transaction> page = new ArrayList<> (keys.size ());
+		for ( HistoryIndex.Key k : keys )
+		{
+			page.add (transactions.get (k.hash));
+		}
+		String next = keys.size () == limit ? keys.get (keys.size () - 1).toString () : null;
+		return new TransactionPage (page, keys, next);
 	}
 }
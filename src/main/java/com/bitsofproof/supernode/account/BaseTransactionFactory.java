@@ -4,10 +4,17 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,20 +25,84 @@ import com.bitsofproof.supernode.api.Transaction;
 import com.bitsofproof.supernode.api.TransactionInput;
 import com.bitsofproof.supernode.api.TransactionOutput;
 import com.bitsofproof.supernode.common.ValidationException;
-import com.bitsofproof.supernode.common.WireFormat;
 
 public abstract class BaseTransactionFactory extends BaseAccountManager implements TransactionFactory
 {
 	private static final Logger log = LoggerFactory.getLogger (BaseTransactionFactory.class);
 
-	private static final long DUST_LIMIT = 5430;
+	static final long DUST_LIMIT = 5430;
 	private static final long KB_FEE = 1000;
 	private static final long MINIMUM_FEE = 10000;
 	private static final long MAXIMUM_FEE = 1000000;
+	private static final int P2PKH_SCRIPT_LENGTH = 25;
+	private static final int P2PKH_SPEND_SCRIPT_LENGTH = 1 + 73 + 1 + 33;
+	// signals opt-in replace-by-fee
+	private static final long REPLACEABLE_SEQUENCE = 0xfffffffdL;
+	// a replacement has to pay for its own relay at this rate per 1000 bytes on top of the replaced fee
+	private static final long INCREMENTAL_RELAY_FEE = KB_FEE;
 
 	private static final SecureRandom random = new SecureRandom ();
 
-	private Set<String> reserved = Collections.synchronizedSet (new HashSet<String> ());
+	// the pool manager counts only unreserved outputs as ready
+	private final ReservationTable reservations = new ReservationTable ()
+	{
+		@Override
+		public void reserve (String hash, long ix, String owner, long expiry)
+		{
+			super.reserve (hash, ix, owner, expiry);
+			reservationsChanged ();
+		}
+
+		@Override
+		public boolean release (String hash, long ix)
+		{
+			return reservationsChanged (super.release (hash, ix));
+		}
+
+		@Override
+		public boolean release (String hash, long ix, String owner)
+		{
+			return reservationsChanged (super.release (hash, ix, owner));
+		}
+
+		@Override
+		public int releaseOwner (String owner)
+		{
+			int n = super.releaseOwner (owner);
+			reservationsChanged (n > 0);
+			return n;
+		}
+
+		private boolean reservationsChanged (boolean changed)
+		{
+			if ( changed )
+			{
+				reservationsChanged ();
+			}
+			return changed;
+		}
+
+		private void reservationsChanged ()
+		{
+			UTXOPoolManager pool = utxoPoolManager;
+			if ( pool != null )
+			{
+				pool.reservationsChanged ();
+			}
+		}
+	};
+	private long reservationTimeout = 60 * 60 * 1000;
+	private final AtomicLong paymentSequence = new AtomicLong ();
+	private final Map<String, String> replacements = Collections.synchronizedMap (new HashMap<String, String> ());
+
+	private int maxAncestorDepth = 3;
+	private int maxAncestorSize = 20000;
+
+	private UTXOPoolManager utxoPoolManager;
+	private FeeEstimator feeEstimator;
+
+	private ExecutorService signingExecutor;
+	private int parallelSigningThreshold = 16;
 
 	@Override
 	public abstract Address getNextChangeAddress () throws ValidationException;
@@ -39,20 +110,136 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 	@Override
 	public abstract Address getNextReceiverAddress () throws ValidationException;
 
-	public static long estimateFee (Transaction t, Priority priority)
+	public static int estimateSize (Transaction t)
+	{
+		int size = 8 + varIntSize (t.getInputs ().size ()) + varIntSize (t.getOutputs ().size ());
+		for ( TransactionInput i : t.getInputs () )
+		{
+			size += inputSize (i.getScript () == null ? 0 : i.getScript ().length);
+		}
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			size += outputSize (o.getScript ().length);
+		}
+		return size;
+	}
+
+	// size of a payment spending compressed key pay-to-address outputs to pay-to-address outputs
+	public static int estimateSize (int inputs, int outputs)
+	{
+		return 8 + varIntSize (inputs) + varIntSize (outputs) + inputs * inputSize (P2PKH_SPEND_SCRIPT_LENGTH) + outputs
+				* outputSize (P2PKH_SCRIPT_LENGTH);
+	}
+
+	public static long estimateFee (int size, Priority priority)
 	{
-		WireFormat.Writer writer = new WireFormat.Writer ();
-		t.toWire (writer);
-		int tsd = (writer.toByteArray ().length + 1000) / 1000;
+		int tsd = (size + 1000) / 1000;
 		return Math.min (MAXIMUM_FEE, priority == Priority.LOW ? 0 : Math.max (tsd * (priority == Priority.NORMAL ? KB_FEE : MINIMUM_FEE), MINIMUM_FEE));
 	}
 
+	public static long estimateFee (Transaction t, Priority priority)
+	{
+		return estimateFee (estimateSize (t), priority);
+	}
+
 	public static long estimateFee (Transaction t)
 	{
 		return estimateFee (t, Priority.NORMAL);
 	}
 
+	static int varIntSize (long n)
+	{
+		if ( n < 0xfd )
+		{
+			return 1;
+		}
+		if ( n <= 0xffff )
+		{
+			return 3;
+		}
+		if ( n <= 0xffffffffL )
+		{
+			return 5;
+		}
+		return 9;
+	}
+
+	private static int inputSize (int scriptLength)
+	{
+		// outpoint, script, sequence
+		return 32 + 4 + varIntSize (scriptLength) + scriptLength + 4;
+	}
+
+	private static int outputSize (int scriptLength)
+	{
+		// value, script
+		return 8 + varIntSize (scriptLength) + scriptLength;
+	}
+
+	private static class PaymentPlan
+	{
+		private final List<TransactionSource> sources;
+		private final List<TransactionSink> sinks;
+		private long[] change = new long[0];
+		private long fee;
+
+		public PaymentPlan (List<TransactionSource> sources, List<TransactionSink> sinks)
+		{
+			this.sources = sources;
+			this.sinks = sinks;
+		}
+	}
+
+	protected int getChangeScriptLength ()
+	{
+		return P2PKH_SCRIPT_LENGTH;
+	}
+
+	public FeeEstimator getFeeEstimator ()
+	{
+		return feeEstimator;
+	}
+
+	public void setFeeEstimator (FeeEstimator feeEstimator)
+	{
+		this.feeEstimator = feeEstimator;
+	}
+
+	// fee for the target confirmation of the priority as observed in recent blocks, if an estimator is set
+	protected long calculateFee (int size, Priority priority)
+	{
+		FeeEstimator estimator = feeEstimator;
+		if ( estimator != null && estimator.hasEstimate () )
+		{
+			long relay = priority == Priority.LOW ? 0 : ((size + 1000) / 1000) * KB_FEE;
+			return Math.min (MAXIMUM_FEE, Math.max (relay, estimator.estimateFee (size, priority)));
+		}
+		return estimateFee (size, priority);
+	}
+
+	// upper bound of the serialized size of the signed transaction
+	private int estimateSize (PaymentPlan plan) throws ValidationException
+	{
+		int size = 8 + varIntSize (plan.sources.size ()) + varIntSize (plan.sinks.size () + plan.change.length);
+		for ( TransactionSource s : plan.sources )
+		{
+			size += inputSize (s.getMaximumScriptLength ());
+		}
+		for ( TransactionSink s : plan.sinks )
+		{
+			size += outputSize (s.getScriptLength ());
+		}
+		size += plan.change.length * outputSize (getChangeScriptLength ());
+		return size;
+	}
+
 	protected Transaction createTransaction (List<TransactionSource> sources, List<TransactionSink> sinks, long fee) throws ValidationException
+	{
+		return createTransaction (sources, sinks, fee, false);
+	}
+
+	protected Transaction createTransaction (List<TransactionSource> sources, List<TransactionSink> sinks, long fee, boolean replaceable)
+			throws ValidationException
 	{
 		if ( fee < 0 || fee > MAXIMUM_FEE )
 		{
@@ -68,7 +255,7 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 			TransactionOutput o = new TransactionOutput ();
 			o.setValue (s.getValue ());
 			sumOut += s.getValue ();
-			o.setScript (s.getScript ());
+			o.setScript (s.getSharedScript ());
 
 			transaction.getOutputs ().add (o);
 		}
@@ -79,6 +266,10 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 			TransactionInput i = new TransactionInput ();
 			i.setSourceHash (o.getSource ().getTxHash ());
 			i.setIx (o.getSource ().getIx ());
+			if ( replaceable )
+			{
+				i.setSequence (REPLACEABLE_SEQUENCE);
+			}
 			sumInput += o.getSource ().getValue ();
 
 			transaction.getInputs ().add (i);
@@ -88,24 +279,177 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 			throw new ValidationException ("Sum of sinks (+fee) does not match sum of sources");
 		}
 
-		int j = 0;
-		for ( TransactionSource s : sources )
+		byte[][] scripts = sign (sources, transaction);
+		for ( int j = 0; j < scripts.length; ++j )
 		{
-			TransactionInput i = transaction.getInputs ().get (j);
-			i.setScript (s.spend (j, transaction));
-			++j;
+			transaction.getInputs ().get (j).setScript (scripts[j]);
 		}
 
 		transaction.computeHash ();
 		return transaction;
 	}
 
+	public UTXOPoolManager getUTXOPoolManager ()
+	{
+		return utxoPoolManager;
+	}
+
+	public void setUTXOPoolManager (UTXOPoolManager utxoPoolManager)
+	{
+		this.utxoPoolManager = utxoPoolManager;
+	}
+
+	public void setSigningExecutor (ExecutorService signingExecutor)
+	{
+		this.signingExecutor = signingExecutor;
+	}
+
+	public ExecutorService getSigningExecutor ()
+	{
+		return signingExecutor;
+	}
+
+	public void setParallelSigningThreshold (int parallelSigningThreshold)
+	{
+		this.parallelSigningThreshold = parallelSigningThreshold;
+	}
+
+	public int getParallelSigningThreshold ()
+	{
+		return parallelSigningThreshold;
+	}
+
+	private byte[][] sign (List<TransactionSource> sources, final Transaction transaction) throws ValidationException
+	{
+		byte[][] scripts = new byte[sources.size ()][];
+		FlightRecorderEvents.Signing prepare = FlightRecorderEvents.signing ();
+		final SigningContext context = new SigningContext (transaction, this);
+		for ( TransactionSource s : sources )
+		{
+			s.prepareSpend (context);
+		}
+		if ( prepare != null )
+		{
+			prepare.finish ("prepare", -1, sources.size ());
+		}
+		boolean legacy = false;
+		for ( TransactionSource s : sources )
+		{
+			legacy |= s.isLegacySpend ();
+		}
+		ExecutorService executor = signingExecutor;
+		if ( executor == null || legacy || sources.size () < parallelSigningThreshold )
+		{
+			int j = 0;
+			for ( TransactionSource s : sources )
+			{
+				scripts[j] = spend (s, j, sources.size (), context, transaction);
+				// overrides of the legacy spend see the scripts of the inputs signed before, as they always did
+				if ( legacy )
+				{
+					transaction.getInputs ().get (j).setScript (scripts[j]);
+				}
+				++j;
+			}
+			return scripts;
+		}
+		// the signing context is read only once keys are resolved, so inputs can be signed in any order
+		List<Callable<byte[]>> tasks = new ArrayList<> ();
+		final int n = sources.size ();
+		int j = 0;
+		for ( final TransactionSource s : sources )
+		{
+			final int ix = j++;
+			tasks.add (new Callable<byte[]> ()
+			{
+				@Override
+				public byte[] call () throws ValidationException
+				{
+					return spend (s, ix, n, context, transaction);
+				}
+			});
+		}
+		try
+		{
+			j = 0;
+			for ( Future<byte[]> f : executor.invokeAll (tasks) )
+			{
+				scripts[j++] = f.get ();
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread ().interrupt ();
+			throw new ValidationException ("Interrupted while signing");
+		}
+		catch ( ExecutionException e )
+		{
+			if ( e.getCause () instanceof ValidationException )
+			{
+				throw (ValidationException) e.getCause ();
+			}
+			throw new ValidationException ("Can not sign transaction: " + e.getCause ());
+		}
+		return scripts;
+	}
+
+	@SuppressWarnings ("deprecation")
+	private static byte[] spend (TransactionSource source, int ix, int inputs, SigningContext context, Transaction transaction)
+			throws ValidationException
+	{
+		FlightRecorderEvents.Signing event = FlightRecorderEvents.signing ();
+		byte[] script = source.isLegacySpend () ? source.spend (ix, transaction) : source.spend (ix, context);
+		if ( event != null )
+		{
+			event.finish ("sign", ix, inputs);
+		}
+		return script;
+	}
+
 	protected TransactionSource createTransactionSource (TransactionOutput output)
 	{
 		return new TransactionSource (output, this);
 	}
 
 	protected List<TransactionSource> getSufficientSources (long amount, long fee)
+	{
+		return selectSources (amount, fee, false);
+	}
+
+	// with an owner the selected sources are reserved for it in the same step, so that concurrent payments
+	// never select the same inputs; without unconfirmed sources the selection is that of the two argument
+	// method, so that overrides of it still apply
+	protected List<TransactionSource> getSufficientSources (long amount, long fee, String owner, boolean unconfirmed)
+	{
+		FlightRecorderEvents.CoinSelection event = FlightRecorderEvents.coinSelection ();
+		List<TransactionSource> result;
+		if ( owner == null )
+		{
+			result = unconfirmed ? selectSources (amount, fee, true) : getSufficientSources (amount, fee);
+		}
+		else
+		{
+			synchronized ( reservations )
+			{
+				result = unconfirmed ? selectSources (amount, fee, true) : getSufficientSources (amount, fee);
+				if ( result != null )
+				{
+					long expiry = reservationTimeout > 0 ? System.currentTimeMillis () + reservationTimeout : 0;
+					for ( TransactionSource s : result )
+					{
+						reservations.reserve (s.getSource ().getTxHash (), s.getSource ().getIx (), owner, expiry);
+					}
+				}
+			}
+		}
+		if ( event != null )
+		{
+			event.finish (getMetricsType (), amount, fee, result == null ? 0 : result.size ());
+		}
+		return result;
+	}
+
+	private List<TransactionSource> selectSources (long amount, long fee, boolean unconfirmed)
 	{
 		List<TransactionSource> candidates = new ArrayList<> ();
 		for ( TransactionOutput o : getConfirmedOutputs () )
@@ -144,6 +488,11 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 			}
 		});
 		candidates.addAll (changelist);
+		// ... then receiving if allowed
+		if ( unconfirmed )
+		{
+			candidates.addAll (getUnconfirmedSources ());
+		}
 
 		List<TransactionSource> result = new ArrayList<> ();
 		long sum = 0;
@@ -159,19 +508,129 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 		return null;
 	}
 
+	private static class Ancestry
+	{
+		private int depth;
+		private int size;
+	}
+
+	// depth and size of the chain of unconfirmed transactions known to this account an output depends on
+	private Ancestry getAncestry (String hash, Map<String, Ancestry> known)
+	{
+		Ancestry a = known.get (hash);
+		if ( a != null )
+		{
+			return a;
+		}
+		a = new Ancestry ();
+		Transaction t = getTransaction (hash);
+		if ( t != null && t.getBlockHash () == null )
+		{
+			a.depth = 1;
+			a.size = estimateSize (t);
+			Set<String> parents = new HashSet<> ();
+			for ( TransactionInput in : t.getInputs () )
+			{
+				if ( parents.add (in.getSourceHash ()) )
+				{
+					// a shared ancestor is counted on each path, erring on the cautious side
+					Ancestry p = getAncestry (in.getSourceHash (), known);
+					a.depth = Math.max (a.depth, p.depth + 1);
+					a.size += p.size;
+				}
+			}
+		}
+		known.put (hash, a);
+		return a;
+	}
+
+	private List<TransactionSource> getUnconfirmedSources ()
+	{
+		final Map<String, Ancestry> ancestry = new HashMap<> ();
+		List<TransactionSource> candidates = new ArrayList<> ();
+		for ( TransactionOutput o : getReceivingOutputs () )
+		{
+			if ( !isReserved (o.getTxHash (), o.getIx ()) )
+			{
+				Ancestry a = getAncestry (o.getTxHash (), ancestry);
+				if ( a.depth <= maxAncestorDepth && a.size <= maxAncestorSize )
+				{
+					candidates.add (createTransactionSource (o));
+				}
+			}
+		}
+		// prefer short and small chains, then larger outputs so that fewer unconfirmed inputs are needed
+		Collections.sort (candidates, new Comparator<TransactionSource> ()
+		{
+			@Override
+			public int compare (TransactionSource o1, TransactionSource o2)
+			{
+				Ancestry a1 = ancestry.get (o1.getSource ().getTxHash ());
+				Ancestry a2 = ancestry.get (o2.getSource ().getTxHash ());
+				if ( a1.depth != a2.depth )
+				{
+					return Integer.compare (a1.depth, a2.depth);
+				}
+				if ( a1.size != a2.size )
+				{
+					return Integer.compare (a1.size, a2.size);
+				}
+				return Long.compare (o2.getSource ().getValue (), o1.getSource ().getValue ());
+			}
+		});
+		return candidates;
+	}
+
+	public int getMaxAncestorDepth ()
+	{
+		return maxAncestorDepth;
+	}
+
+	public void setMaxAncestorDepth (int maxAncestorDepth)
+	{
+		this.maxAncestorDepth = maxAncestorDepth;
+	}
+
+	public int getMaxAncestorSize ()
+	{
+		return maxAncestorSize;
+	}
+
+	public void setMaxAncestorSize (int maxAncestorSize)
+	{
+		this.maxAncestorSize = maxAncestorSize;
+	}
+
+	public long getReservationTimeout ()
+	{
+		return reservationTimeout;
+	}
+
+	public void setReservationTimeout (long reservationTimeout)
+	{
+		this.reservationTimeout = reservationTimeout;
+	}
+
 	@Override
 	public void reserveInputs (Transaction t)
 	{
+		reserveInputs (t, reservationTimeout);
+	}
+
+	@Override
+	public void reserveInputs (Transaction t, long timeout)
+	{
+		long expiry = timeout > 0 ? System.currentTimeMillis () + timeout : 0;
 		for ( TransactionInput in : t.getInputs () )
 		{
-			reserved.add (in.getSourceHash () + ":" + in.getIx ());
+			reservations.reserve (in.getSourceHash (), in.getIx (), t.getHash (), expiry);
 		}
 	}
 
 	@Override
 	public boolean isReserved (String hash, long ix)
 	{
-		return reserved.contains (hash + ":" + ix);
+		return reservations.isReserved (hash, ix);
 	}
 
 	@Override
@@ -179,19 +638,291 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 	{
 		for ( TransactionInput in : t.getInputs () )
 		{
-			reserved.remove (in.getSourceHash () + ":" + in.getIx ());
+			reservations.release (in.getSourceHash (), in.getIx ());
 		}
 	}
 
-	private Transaction payFixed (List<Address> receiver, List<Long> amounts, PaymentOptions options) throws ValidationException
+	public int getActiveReservations ()
+	{
+		return reservations.getActive ();
+	}
+
+	public long getExpiredReservations ()
+	{
+		return reservations.getExpired ();
+	}
+
+	protected void releaseSettledReservations (Transaction t)
+	{
+		if ( t.getBlockHash () != null || t.getOffendingTx () != null || t.isExpired () )
+		{
+			for ( TransactionInput in : t.getInputs () )
+			{
+				reservations.release (in.getSourceHash (), in.getIx (), t.getHash ());
+			}
+		}
+	}
+
+	@Override
+	public boolean updateWithTransaction (Transaction t)
+	{
+		replaceOriginal (t);
+		boolean modified = super.updateWithTransaction (t);
+		releaseSettledReservations (t);
+		return modified;
+	}
+
+	// reservations of transactions reverted with an invalid ancestor would otherwise be held until they expire
+	@Override
+	protected void reverted (List<Transaction> reverted)
+	{
+		for ( Transaction t : reverted )
+		{
+			reservations.releaseOwner (t.getHash ());
+		}
+		super.reverted (reverted);
+	}
+
+	@Override
+	public void rejected (String command, String hash, String reason, int rejectionCode)
+	{
+		super.rejected (command, hash, reason, rejectionCode);
+		if ( command.equals ("tx") )
+		{
+			replacements.remove (hash);
+			reservations.releaseOwner (hash);
+		}
+	}
+
+	// sweep the smallest confirmed outputs into a single new output
+	public Transaction consolidate (long maxValue, int minInputs, int maxInputs, Priority priority) throws ValidationException
+	{
+		String owner = "consolidation:" + paymentSequence.incrementAndGet ();
+		List<TransactionSource> sources = new ArrayList<> ();
+		synchronized ( reservations )
+		{
+			List<TransactionOutput> small = new ArrayList<> ();
+			for ( TransactionOutput o : getConfirmedOutputs () )
+			{
+				if ( o.getValue () < maxValue && !isReserved (o.getTxHash (), o.getIx ()) )
+				{
+					small.add (o);
+				}
+			}
+			if ( small.size () < minInputs )
+			{
+				return null;
+			}
+			Collections.sort (small, new Comparator<TransactionOutput> ()
+			{
+				@Override
+				public int compare (TransactionOutput o1, TransactionOutput o2)
+				{
+					return Long.compare (o1.getValue (), o2.getValue ());
+				}
+			});
+			long expiry = reservationTimeout > 0 ? System.currentTimeMillis () + reservationTimeout : 0;
+			for ( TransactionOutput o : small.subList (0, Math.min (maxInputs, small.size ())) )
+			{
+				reservations.reserve (o.getTxHash (), o.getIx (), owner, expiry);
+				sources.add (createTransactionSource (o));
+			}
+		}
+		boolean reserved = false;
+		try
+		{
+			long sum = 0;
+			int size = 8 + varIntSize (sources.size ()) + varIntSize (1) + outputSize (getChangeScriptLength ());
+			for ( TransactionSource s : sources )
+			{
+				sum += s.getSource ().getValue ();
+				size += inputSize (s.getMaximumScriptLength ());
+			}
+			long fee = calculateFee (size, priority);
+			if ( sum - fee <= DUST_LIMIT )
+			{
+				log.trace ("Consolidation of " + sources.size () + " outputs would not pay its fee " + fee);
+				return null;
+			}
+			List<TransactionSink> sinks = new ArrayList<> ();
+			Address target = getNextChangeAddress ();
+			sinks.add (new TransactionSink (target.getAddressScript (), sum - fee));
+			log.trace ("consolidate " + sources.size () + " outputs of " + sum + " to " + target);
+			Transaction t = createTransaction (sources, sinks, fee);
+			reserveInputs (t);
+			reserved = true;
+			return t;
+		}
+		finally
+		{
+			if ( !reserved )
+			{
+				reservations.releaseOwner (owner);
+			}
+		}
+	}
+
+	@Override
+	public Transaction bumpFee (Transaction pending, long fee) throws ValidationException
+	{
+		if ( pending.getBlockHash () != null )
+		{
+			throw new ValidationException ("Transaction is already confirmed");
+		}
+		boolean replaceable = false;
+		for ( TransactionInput i : pending.getInputs () )
+		{
+			replaceable |= i.getSequence () <= REPLACEABLE_SEQUENCE;
+		}
+		if ( !replaceable )
+		{
+			throw new ValidationException ("Transaction " + pending.getHash () + " does not signal replaceability");
+		}
+		List<TransactionSource> sources = new ArrayList<> ();
+		long in = 0;
+		for ( TransactionInput i : pending.getInputs () )
+		{
+			Transaction prev = getTransaction (i.getSourceHash ());
+			if ( prev == null )
+			{
+				throw new ValidationException ("Can not spend input " + i.getSourceHash () + " [" + i.getIx () + "] again");
+			}
+			TransactionOutput o = prev.getOutputs ().get ((int) i.getIx ());
+			sources.add (createTransactionSource (o));
+			in += o.getValue ();
+		}
+		long out = 0;
+		List<TransactionSink> sinks = new ArrayList<> ();
+		for ( TransactionOutput o : pending.getOutputs () )
+		{
+			sinks.add (new TransactionSink (o.getScript (), o.getValue ()));
+			out += o.getValue ();
+		}
+		long oldFee = in - out;
+		long missing = fee - oldFee;
+		if ( missing <= 0 )
+		{
+			throw new ValidationException ("Replacement must pay a higher fee than " + oldFee);
+		}
+		// take the additional fee from own outputs, starting with the last
+		for ( int i = sinks.size () - 1; i >= 0 && missing > 0; --i )
+		{
+			if ( isOwnAddress (pending.getOutputs ().get (i).getOutputAddress ()) )
+			{
+				TransactionSink s = sinks.get (i);
+				long take = Math.min (missing, s.getValue ());
+				if ( s.getValue () - take <= DUST_LIMIT )
+				{
+					sinks.remove (i);
+					take = s.getValue ();
+				}
+				else
+				{
+					sinks.set (i, new TransactionSink (s, s.getValue () - take));
+				}
+				missing -= take;
+				out -= take;
+			}
+		}
+		if ( missing > 0 )
+		{
+			throw new ValidationException ("Own outputs of " + pending.getHash () + " can not cover the higher fee");
+		}
+		if ( sinks.isEmpty () )
+		{
+			throw new ValidationException ("No output left after paying fees");
+		}
+		long required = oldFee + (estimateSize (new PaymentPlan (sources, sinks)) * INCREMENTAL_RELAY_FEE + 999) / 1000;
+		if ( in - out < required )
+		{
+			throw new ValidationException ("Replacement must pay at least " + required + " to be relayed");
+		}
+		Transaction replacement = createTransaction (sources, sinks, in - out, true);
+		log.trace ("Replace " + pending.getHash () + " with " + replacement.getHash () + " paying " + (in - out));
+		replacements.put (replacement.getHash (), pending.getHash ());
+		reserveInputs (replacement);
+		return replacement;
+	}
+
+	@Override
+	public Transaction payForParent (Transaction parent, long fee) throws ValidationException
+	{
+		String owner = "child:" + paymentSequence.incrementAndGet ();
+		List<TransactionSource> sources = new ArrayList<> ();
+		long in = 0;
+		synchronized ( reservations )
+		{
+			List<TransactionOutput> outputs = new ArrayList<> ();
+			outputs.addAll (getChangeOutputs ());
+			outputs.addAll (getReceivingOutputs ());
+			long expiry = reservationTimeout > 0 ? System.currentTimeMillis () + reservationTimeout : 0;
+			for ( TransactionOutput o : outputs )
+			{
+				if ( o.getTxHash ().equals (parent.getHash ()) && !isReserved (o.getTxHash (), o.getIx ()) )
+				{
+					reservations.reserve (o.getTxHash (), o.getIx (), owner, expiry);
+					sources.add (createTransactionSource (o));
+					in += o.getValue ();
+				}
+			}
+		}
+		boolean reserved = false;
+		try
+		{
+			if ( sources.isEmpty () )
+			{
+				throw new ValidationException ("No unspent own output of " + parent.getHash ());
+			}
+			if ( in - fee <= DUST_LIMIT )
+			{
+				throw new ValidationException ("Own outputs of " + parent.getHash () + " can not pay the fee " + fee);
+			}
+			List<TransactionSink> sinks = new ArrayList<> ();
+			sinks.add (new TransactionSink (getNextChangeAddress ().getAddressScript (), in - fee));
+			Transaction child = createTransaction (sources, sinks, fee);
+			log.trace ("Child " + child.getHash () + " pays " + fee + " for " + parent.getHash ());
+			reserveInputs (child);
+			reserved = true;
+			return child;
+		}
+		finally
+		{
+			if ( !reserved )
+			{
+				reservations.releaseOwner (owner);
+			}
+		}
+	}
+
+	// once a replacement is seen the replaced transaction and anything spending its outputs is void
+	protected void replaceOriginal (Transaction t)
+	{
+		String original = replacements.remove (t.getHash ());
+		if ( original != null )
+		{
+			List<Transaction> reverted = revert (original);
+			for ( Transaction r : reverted )
+			{
+				if ( r.getHash ().equals (original) )
+				{
+					r.setOffendingTx (t.getHash ());
+				}
+				log.trace ("Replaced {} by {}", r.getHash (), t.getHash ());
+			}
+			reverted (reverted);
+		}
+	}
+
+	private PaymentPlan planPayment (List<Address> receiver, List<Long> amounts, long fee, PaymentOptions options, String owner)
+			throws ValidationException
 	{
 		long amount = 0;
 		for ( Long a : amounts )
 		{
 			amount += a;
 		}
-		log.trace ("pay " + amount + (options.isPaidBySender () ? " + " + options : ""));
-		List<TransactionSource> sources = getSufficientSources (amount, options.isPaidBySender () ? options.getFee () : 0);
+		log.trace ("pay " + amount + (options.isPaidBySender () ? " + " + fee : ""));
+		List<TransactionSource> sources = getSufficientSources (amount, options.isPaidBySender () ? fee : 0, owner, options.isSpendingUnconfirmed ());
 		if ( sources == null )
 		{
 			throw new ValidationException ("Insufficient funds to pay " + amount + " " + options);
@@ -208,25 +939,26 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 		{
 			sinks.add (new TransactionSink (r.getAddressScript (), ai.next ()));
 		}
-		long txfee = options.getFee ();
+		PaymentPlan plan = new PaymentPlan (sources, sinks);
+		plan.fee = fee;
 		if ( !options.isPaidBySender () )
 		{
 			long feeCollected = 0;
-			while ( !sinks.isEmpty () && feeCollected < txfee )
+			while ( !sinks.isEmpty () && feeCollected < fee )
 			{
 				TransactionSink last = sinks.get (sinks.size () - 1);
-				long feeAvaialable = Math.min (last.getValue (), options.getFee () - feeCollected);
+				long feeAvaialable = Math.min (last.getValue (), fee - feeCollected);
 				if ( feeAvaialable == last.getValue () )
 				{
 					sinks.remove (sinks.size () - 1);
 				}
 				else
 				{
-					sinks.set (sinks.size () - 1, new TransactionSink (last.getScript (), last.getValue () - feeAvaialable));
+					sinks.set (sinks.size () - 1, new TransactionSink (last, last.getValue () - feeAvaialable));
 				}
 				feeCollected += feeAvaialable;
 			}
-			if ( feeCollected < txfee )
+			if ( feeCollected < fee )
 			{
 				throw new ValidationException ("Can not cover fees by reducing outputs");
 			}
@@ -235,28 +967,45 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 				throw new ValidationException ("No output left after paying fees");
 			}
 		}
-		if ( ((in - amount) - (options.isPaidBySender () ? options.getFee () : 0)) > DUST_LIMIT )
+		if ( ((in - amount) - (options.isPaidBySender () ? fee : 0)) > DUST_LIMIT )
 		{
-			for ( long change : splitChange (in - amount - (options.isPaidBySender () ? options.getFee () : 0), Math.max (1, options.getChange ())) )
+			long change = in - amount - (options.isPaidBySender () ? fee : 0);
+			UTXOPoolManager pool = utxoPoolManager;
+			// an explicit number of change outputs of the caller takes precedence
+			if ( pool != null && options.getChange () <= 1 )
+			{
+				plan.change = pool.splitChange (change);
+			}
+			else
 			{
-				Address changeAddress = getNextChangeAddress ();
-				TransactionSink changeOutput = new TransactionSink (changeAddress.getAddressScript (), change);
-				log.trace ("change to " + changeAddress + " " + changeOutput.getValue ());
-				sinks.add (changeOutput);
+				plan.change = splitChange (change, Math.max (1, options.getChange ()));
 			}
 		}
 		else
 		{
 			if ( options.isPaidBySender () )
 			{
-				txfee = in - amount;
+				plan.fee = in - amount;
 			}
 		}
+		return plan;
+	}
+
+	private Transaction assemblePayment (PaymentPlan plan, PaymentOptions options) throws ValidationException
+	{
+		List<TransactionSink> sinks = new ArrayList<> (plan.sinks);
+		for ( long change : plan.change )
+		{
+			Address changeAddress = getNextChangeAddress ();
+			TransactionSink changeOutput = new TransactionSink (changeAddress.getAddressScript (), change);
+			log.trace ("change to " + changeAddress + " " + changeOutput.getValue ());
+			sinks.add (changeOutput);
+		}
 		if ( options.isShuffled () )
 		{
 			Collections.shuffle (sinks);
 		}
-		return createTransaction (sources, sinks, txfee);
+		return createTransaction (plan.sources, sinks, plan.fee, options.isReplaceable ());
 	}
 
 	private long[] splitChange (long change, int n)
@@ -319,30 +1068,59 @@ public abstract class BaseTransactionFactory extends BaseAccountManager implemen
 	@Override
 	public Transaction pay (List<Address> receiver, List<Long> amounts, PaymentOptions options) throws ValidationException
 	{
-		Transaction t;
+		if ( !options.isReservingInputs () )
+		{
+			return pay (receiver, amounts, options, null);
+		}
+		String owner = "payment:" + paymentSequence.incrementAndGet ();
+		boolean reserved = false;
+		try
+		{
+			Transaction t = pay (receiver, amounts, options, owner);
+			// hand the reservation over to the transaction, so it is released as it confirms or is rejected
+			reserveInputs (t);
+			reserved = true;
+			return t;
+		}
+		finally
+		{
+			if ( !reserved )
+			{
+				reservations.releaseOwner (owner);
+			}
+		}
+	}
 
+	private Transaction pay (List<Address> receiver, List<Long> amounts, PaymentOptions options, String owner) throws ValidationException
+	{
 		if ( options.isCalculated () )
 		{
-			long estimate = 0;
-			long txfee = options.isLowPriority () ? 0 : MINIMUM_FEE;
-			do
+			// solve the fee on the unsigned plan, so the transaction is signed only once
+			long txfee = options.isLowPriority () || feeEstimator != null ? 0 : MINIMUM_FEE;
+			PaymentPlan plan = planPayment (receiver, amounts, txfee, options, owner);
+			long estimate = calculateFee (estimateSize (plan), options.getPriority ());
+			while ( txfee < estimate )
 			{
-				txfee = Math.max (txfee, estimate);
-				t = payFixed (receiver, amounts,
-						new PaymentOptions (txfee, PaymentOptions.FeeCalculation.FIXED, options.getSource (), options.getPriority (),
-								options.getOutputOrder (), options.getChange ()));
-				estimate = estimateFee (t, options.getPriority ());
-				if ( txfee < estimate )
-				{
-					log.trace ("The transaction requires more network fees. Reassembling.");
-				}
-			} while ( options.getCalculation () == PaymentOptions.FeeCalculation.CALCULATED && txfee < estimate );
+				log.trace ("The transaction requires more network fees. Replanning.");
+				releaseSources (plan.sources, owner);
+				txfee = estimate;
+				plan = planPayment (receiver, amounts, txfee, options, owner);
+				estimate = calculateFee (estimateSize (plan), options.getPriority ());
+			}
+			return assemblePayment (plan, options);
 		}
-		else
+		return assemblePayment (planPayment (receiver, amounts, options.getFee (), options, owner), options);
+	}
+
+	private void releaseSources (List<TransactionSource> sources, String owner)
+	{
+		if ( owner != null )
 		{
-			t = payFixed (receiver, amounts, options);
+			for ( TransactionSource s : sources )
+			{
+				reservations.release (s.getSource ().getTxHash (), s.getSource ().getIx (), owner);
+			}
 		}
-		return t;
 	}
 
 	@Override
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionOutput;
+
+// bounded log of account changes, sequence numbers are never reused
+// the log is allocated by the first reader, until then only the sequence advances
+public class ChangeLog
+{
+	private int capacity;
+	private AccountChange[] log;
+	private long sequence;
+	private long first = 1;
+
+	public ChangeLog (int capacity)
+	{
+		this.capacity = capacity;
+	}
+
+	public synchronized int getCapacity ()
+	{
+		return capacity;
+	}
+
+	// a capacity of 0 disables the log, readers always have to read full state
+	public synchronized void setCapacity (int capacity)
+	{
+		this.capacity = capacity;
+		log = null;
+		first = sequence + 1;
+	}
+
+	public synchronized long getSequence ()
+	{
+		return sequence;
+	}
+
+	public synchronized void append (AccountChange.Type type, AccountChange.Pool pool, TransactionOutput output, Transaction transaction)
+	{
+		++sequence;
+		if ( log == null )
+		{
+			first = sequence + 1;
+			return;
+		}
+		log[(int) (sequence % log.length)] = new AccountChange (sequence, type, pool, output, transaction);
+		if ( sequence - first >= log.length )
+		{
+			first = sequence - log.length + 1;
+		}
+	}
+
+	// forget all changes, readers behind this point have to read full state
+	public synchronized void invalidate ()
+	{
+		first = ++sequence + 1;
+	}
+
+	// changes after the given sequence number, null if some of them are no longer in the log
+	public synchronized List<AccountChange> getChangesSince (long since)
+	{
+		if ( log == null && capacity > 0 )
+		{
+			log = new AccountChange[capacity];
+		}
+		if ( log == null || since < first - 1 || since > sequence )
+		{
+			return null;
+		}
+		List<AccountChange> changes = new ArrayList<> ((int) (sequence - since));
+		for ( long i = since + 1; i <= sequence; ++i )
+		{
+			changes.add (log[(int) (i % log.length)]);
+		}
+		return changes;
+	}
+}
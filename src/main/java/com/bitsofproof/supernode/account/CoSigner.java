@@ -0,0 +1,10 @@
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.common.ValidationException;
+
+public interface CoSigner
+{
+	public byte[] getPublic ();
+
+	public byte[] sign (byte[] hash) throws ValidationException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+public class ConfirmationEventPublisher extends SequencedEventPublisher<ConfirmationEventPublisher.Event> implements ConfirmationListener
+{
+	// either a confirmed or unconfirmed transaction, or a new height without transaction
+	public static class Event
+	{
+		private final Transaction transaction;
+		private final int height;
+
+		public Event (Transaction transaction, int height)
+		{
+			this.transaction = transaction;
+			this.height = height;
+		}
+
+		public Transaction getTransaction ()
+		{
+			return transaction;
+		}
+
+		public int getHeight ()
+		{
+			return height;
+		}
+	}
+
+	public ConfirmationEventPublisher (int replayCapacity, int bufferLimit)
+	{
+		super (replayCapacity, bufferLimit);
+	}
+
+	@Override
+	public void confirmed (Transaction t)
+	{
+		publish (new Event (t, t.getHeight ()));
+	}
+
+	@Override
+	public void newHeight (int height)
+	{
+		publish (new Event (null, height));
+	}
+}
@@ -1,6 +1,5 @@
 package com.bitsofproof.supernode.account;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -10,6 +9,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,12 +32,16 @@ public class ConfirmationManager implements TrunkListener
 	private final Map<String, Set<Transaction>> inputs = new HashMap<> ();
 	private final Map<String, Set<Transaction>> confirmations = new HashMap<> ();
 	private int height;
+	private FeeEstimator feeEstimator;
+	private AccountMetrics metrics = AccountMetrics.NOOP;
+	private final String metricsType = getClass ().getSimpleName ();
 
-	private final Set<ConfirmationListener> confirmationListener = Collections.synchronizedSet (new HashSet<ConfirmationListener> ());
+	private final Set<ConfirmationListener> confirmationListener = new CopyOnWriteArraySet<> ();
 
 	public synchronized void addAccount (AccountManager account)
 	{
 		accounts.add (account);
+		account.setChainHeight (height);
 	}
 
 	public synchronized void removeAccount (AccountManager account)
@@ -55,6 +59,10 @@ public class ConfirmationManager implements TrunkListener
 		api.catchUp (trunk, trunkLength, true, this);
 		Block highest = api.getBlockHeader (trunk.getFirst ());
 		height = highest.getHeight ();
+		for ( AccountManager account : accounts )
+		{
+			account.setChainHeight (height);
+		}
 	}
 
 	public synchronized void init (BCSAPI api, int trunkLength) throws BCSAPIException
@@ -62,6 +70,26 @@ public class ConfirmationManager implements TrunkListener
 		init (api, trunkLength, null);
 	}
 
+	public synchronized FeeEstimator getFeeEstimator ()
+	{
+		return feeEstimator;
+	}
+
+	public synchronized void setFeeEstimator (FeeEstimator feeEstimator)
+	{
+		this.feeEstimator = feeEstimator;
+	}
+
+	public synchronized AccountMetrics getMetrics ()
+	{
+		return metrics;
+	}
+
+	public synchronized void setMetrics (AccountMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
 	public synchronized int getHeight ()
 	{
 		return height;
@@ -75,13 +103,16 @@ public class ConfirmationManager implements TrunkListener
 
 		if ( !trunk.isEmpty () && !trunk.getFirst ().equals (first.getPreviousHash ()) )
 		{
-			log.trace ("Chain reorg through " + first.getHash ());
+			FlightRecorderEvents.Reorg event = FlightRecorderEvents.reorg ();
+			log.trace ("Chain reorg through {}", first.getHash ());
+			int depth = 0;
 			if ( trunk.contains (first.getPreviousHash ()) )
 			{
 				do
 				{
+					++depth;
 					String removed = trunk.removeFirst ();
-					log.trace ("Removing block " + removed);
+					log.trace ("Removing block {}", removed);
 					if ( confirmations.containsKey (removed) )
 					{
 						for ( Transaction t : confirmations.get (removed) )
@@ -97,6 +128,7 @@ public class ConfirmationManager implements TrunkListener
 			else
 			{
 				log.trace ("Removing all blocks");
+				depth = trunk.size ();
 				trunk.clear ();
 				Iterator<String> ri = confirmations.keySet ().iterator ();
 				while ( ri.hasNext () )
@@ -112,11 +144,22 @@ public class ConfirmationManager implements TrunkListener
 					ri.remove ();
 				}
 			}
+			metrics.reorg (metricsType, depth);
+			if ( event != null )
+			{
+				event.finish (depth, reorgedTransactions.size ());
+			}
 		}
 		for ( Block b : added )
 		{
+			FlightRecorderEvents.BlockApplied event = FlightRecorderEvents.blockApplied ();
+			long start = System.nanoTime ();
 			trunk.addFirst (b.getHash ());
-			log.trace ("New highest block " + trunk.getFirst ());
+			log.trace ("New highest block {}", b.getHash ());
+			if ( feeEstimator != null )
+			{
+				feeEstimator.blockAdded (b);
+			}
 			if ( b.getTransactions () != null )
 			{
 				for ( Transaction t : b.getTransactions () )
@@ -131,7 +174,7 @@ public class ConfirmationManager implements TrunkListener
 					{
 						if ( account.process (t) || account.isKnownTransaction (t) )
 						{
-							log.trace ("confirmation for " + t.getHash ());
+							log.trace ("confirmation for {}", t.getHash ());
 							cache = true;
 						}
 					}
@@ -143,11 +186,26 @@ public class ConfirmationManager implements TrunkListener
 				}
 			}
 			height = b.getHeight ();
+			metrics.blockApplied (metricsType, b.getTransactions () != null ? b.getTransactions ().size () : 0, System.nanoTime () - start);
+			if ( event != null )
+			{
+				event.finish (b.getHash (), b.getHeight (), b.getTransactions () != null ? b.getTransactions ().size () : 0, accounts.size ());
+			}
+		}
+
+		for ( AccountManager account : accounts )
+		{
+			account.setChainHeight (height);
+			account.compactHistory (height);
 		}
 
 		for ( Transaction n : reorgedTransactions )
 		{
-			log.trace ("un-confirmed " + n.getHash ());
+			log.trace ("un-confirmed {}", n.getHash ());
+			for ( AccountManager account : accounts )
+			{
+				account.updateConfirmation (n);
+			}
 			notifyListener (n);
 		}
 		notifyListener (null);
@@ -181,7 +239,7 @@ public class ConfirmationManager implements TrunkListener
 		}
 		for ( Transaction f : doubleSpent )
 		{
-			log.trace ("Double spend " + t.getHash () + " replaces " + f.getHash ());
+			log.trace ("Double spend {} replaces {}", t.getHash (), f.getHash ());
 			for ( AccountManager account : accounts )
 			{
 				account.process (f);
@@ -234,13 +292,9 @@ public class ConfirmationManager implements TrunkListener
 
 	private void notifyListener (Transaction t)
 	{
-		ArrayList<ConfirmationListener> al = new ArrayList<> ();
-		synchronized ( confirmationListener )
-		{
-			al.addAll (confirmationListener);
-		}
-		for ( ConfirmationListener l : al )
+		for ( ConfirmationListener l : confirmationListener )
 		{
+			long start = System.nanoTime ();
 			try
 			{
 				if ( t != null )
@@ -256,6 +310,7 @@ public class ConfirmationManager implements TrunkListener
 			{
 				log.error ("Uncaught exception in account listener", e);
 			}
+			metrics.listenerDispatched (metricsType, System.nanoTime () - start);
 		}
 	}
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+// the contract of java.util.concurrent.Flow, which is not available on the Java 8 target of this library
+public interface EventPublisher<T>
+{
+	public interface Subscriber<T>
+	{
+		public void onSubscribe (Subscription subscription);
+
+		public void onNext (T item);
+
+		public void onError (Throwable throwable);
+
+		public void onComplete ();
+	}
+
+	public interface Subscription
+	{
+		public void request (long n);
+
+		public void cancel ();
+	}
+
+	public void subscribe (Subscriber<? super T> subscriber);
+}
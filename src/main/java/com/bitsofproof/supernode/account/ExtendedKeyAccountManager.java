@@ -91,6 +91,8 @@ public class ExtendedKeyAccountManager extends BaseTransactionFactory
 
 	private void ensureLookAhead (int from)
 	{
+		FlightRecorderEvents.KeyDerivation event = FlightRecorderEvents.keyDerivation ();
+		int first = keyIDForAddress.size () + firstIndex;
 		while ( keyIDForAddress.size () < (from + lookAhead - firstIndex) )
 		{
 			Key key = null;
@@ -103,6 +105,10 @@ public class ExtendedKeyAccountManager extends BaseTransactionFactory
 			}
 			keyIDForAddress.put (key.getAddress (), keyIDForAddress.size () + firstIndex);
 		}
+		if ( event != null )
+		{
+			event.finish (first, keyIDForAddress.size () + firstIndex - first);
+		}
 	}
 
 	public Key getKey (int i) throws ValidationException
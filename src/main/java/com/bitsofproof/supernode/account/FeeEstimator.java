@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.account.PaymentOptions.Priority;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.Hash;
+
+// fee rates in satoshi per 1000 bytes, percentiles of each block kept over a sliding window of blocks
+public class FeeEstimator
+{
+	private static final Logger log = LoggerFactory.getLogger (FeeEstimator.class);
+
+	private static final long INITIAL_SUBSIDY = 5000000000L;
+	private static final int HALVING_INTERVAL = 210000;
+
+	private final int window;
+	private final long[] low;
+	private final long[] median;
+	private final long[] high;
+	// block of each entry, a block applied again during a reorg replaces its entry
+	private final String[] hashes;
+	private final Map<String, Integer> entries = new HashMap<> ();
+	private long sumLow;
+	private long sumMedian;
+	private long sumHigh;
+	private int blocks;
+	private int next;
+
+	// output values of recent transactions, to compute fees of transactions spending them
+	private final Map<String, long[]> recentOutputs;
+
+	public FeeEstimator ()
+	{
+		this (144, 20000);
+	}
+
+	public FeeEstimator (int window, final int maxRecentTransactions)
+	{
+		this.window = window;
+		low = new long[window];
+		median = new long[window];
+		high = new long[window];
+		hashes = new String[window];
+		recentOutputs = new LinkedHashMap<String, long[]> ()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, long[]> eldest)
+			{
+				return size () > maxRecentTransactions;
+			}
+		};
+	}
+
+	public synchronized void blockAdded (Block b)
+	{
+		if ( b.getTransactions () == null || b.getTransactions ().isEmpty () )
+		{
+			return;
+		}
+		for ( Transaction t : b.getTransactions () )
+		{
+			long[] values = new long[t.getOutputs ().size ()];
+			for ( TransactionOutput o : t.getOutputs () )
+			{
+				values[(int) o.getIx ()] = o.getValue ();
+			}
+			recentOutputs.put (t.getHash (), values);
+		}
+		long[] rates = new long[b.getTransactions ().size ()];
+		int n = 0;
+		long coinbase = 0;
+		long size = 0;
+		for ( Transaction t : b.getTransactions () )
+		{
+			int s = BaseTransactionFactory.estimateSize (t);
+			long out = 0;
+			for ( TransactionOutput o : t.getOutputs () )
+			{
+				out += o.getValue ();
+			}
+			if ( t.getInputs ().get (0).getSourceHash ().equals (Hash.ZERO_HASH_STRING) )
+			{
+				coinbase = out;
+				continue;
+			}
+			size += s;
+			long in = 0;
+			for ( TransactionInput i : t.getInputs () )
+			{
+				long[] values = recentOutputs.get (i.getSourceHash ());
+				if ( values == null || i.getIx () >= values.length )
+				{
+					in = -1;
+					break;
+				}
+				in += values[(int) i.getIx ()];
+			}
+			if ( in >= 0 )
+			{
+				rates[n++] = (in - out) * 1000 / s;
+			}
+		}
+		if ( n == 0 )
+		{
+			if ( size == 0 )
+			{
+				return;
+			}
+			// no fee known for an individual transaction, use the block average from the coinbase
+			long subsidy = b.getHeight () / HALVING_INTERVAL >= 64 ? 0 : INITIAL_SUBSIDY >> (b.getHeight () / HALVING_INTERVAL);
+			rates[n++] = Math.max (0, coinbase - subsidy) * 1000 / size;
+		}
+		Arrays.sort (rates, 0, n);
+		add (b.getHash (), rates[n / 4], rates[n / 2], rates[(n * 9) / 10]);
+		log.trace ("Fee rates of block " + b.getHash () + " " + rates[n / 4] + " " + rates[n / 2] + " " + rates[(n * 9) / 10]);
+	}
+
+	private void add (String hash, long l, long m, long h)
+	{
+		Integer entry = entries.get (hash);
+		int ix;
+		if ( entry != null )
+		{
+			ix = entry;
+			remove (ix);
+		}
+		else
+		{
+			ix = next;
+			next = (next + 1) % window;
+			if ( blocks == window )
+			{
+				remove (ix);
+				entries.remove (hashes[ix]);
+			}
+			else
+			{
+				++blocks;
+			}
+			entries.put (hash, ix);
+		}
+		hashes[ix] = hash;
+		low[ix] = l;
+		median[ix] = m;
+		high[ix] = h;
+		sumLow += l;
+		sumMedian += m;
+		sumHigh += h;
+	}
+
+	private void remove (int ix)
+	{
+		sumLow -= low[ix];
+		sumMedian -= median[ix];
+		sumHigh -= high[ix];
+	}
+
+	public synchronized boolean hasEstimate ()
+	{
+		return blocks > 0;
+	}
+
+	public synchronized long getFeeRate (Priority priority)
+	{
+		if ( blocks == 0 )
+		{
+			return 0;
+		}
+		switch ( priority )
+		{
+			case LOW:
+				return sumLow / blocks;
+			case HIGH:
+				return sumHigh / blocks;
+			default:
+				return sumMedian / blocks;
+		}
+	}
+
+	public long estimateFee (int size, Priority priority)
+	{
+		return getFeeRate (priority) * size / 1000;
+	}
+}
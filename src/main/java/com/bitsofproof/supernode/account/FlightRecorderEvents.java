@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events of the hot paths, their fields are only filled in if shouldCommit () is true. Escape
+// analysis does not reliably remove the allocation of an event around calls that are not inlined, so the factories
+// return null unless a recording is running, as they do if the JVM has no jdk.jfr, that is before 8u272 and on
+// some JVMs. Call sites must only touch the event classes through a non null event, so that they are never linked.
+final class FlightRecorderEvents
+{
+	static final boolean AVAILABLE = isAvailable ();
+
+	private static volatile boolean recording;
+
+	static
+	{
+		if ( AVAILABLE )
+		{
+			RecordingWatch.start ();
+		}
+	}
+
+	private FlightRecorderEvents ()
+	{
+	}
+
+	private static final class RecordingWatch implements FlightRecorderListener
+	{
+		static void start ()
+		{
+			try
+			{
+				FlightRecorder.addListener (new RecordingWatch ());
+				update ();
+			}
+			catch ( RuntimeException e )
+			{
+				// not allowed to watch, record whenever asked to
+				recording = true;
+			}
+		}
+
+		@Override
+		public void recordingStateChanged (Recording changed)
+		{
+			update ();
+		}
+
+		// the recorder is initialized with the first recording, asking for recordings earlier would start it
+		private static void update ()
+		{
+			boolean running = false;
+			if ( FlightRecorder.isInitialized () )
+			{
+				for ( Recording r : FlightRecorder.getFlightRecorder ().getRecordings () )
+				{
+					running |= r.getState () == RecordingState.RUNNING;
+				}
+			}
+			recording = running;
+		}
+	}
+
+	private static boolean isAvailable ()
+	{
+		try
+		{
+			Class.forName ("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader ());
+			return true;
+		}
+		catch ( ClassNotFoundException | LinkageError e )
+		{
+			return false;
+		}
+	}
+
+	static UpdateWithTransaction updateWithTransaction ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		UpdateWithTransaction event = new UpdateWithTransaction ();
+		event.begin ();
+		return event;
+	}
+
+	static CoinSelection coinSelection ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		CoinSelection event = new CoinSelection ();
+		event.begin ();
+		return event;
+	}
+
+	static Signing signing ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		Signing event = new Signing ();
+		event.begin ();
+		return event;
+	}
+
+	static BlockApplied blockApplied ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		BlockApplied event = new BlockApplied ();
+		event.begin ();
+		return event;
+	}
+
+	static Reorg reorg ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		Reorg event = new Reorg ();
+		event.begin ();
+		return event;
+	}
+
+	static KeyDerivation keyDerivation ()
+	{
+		if ( !recording )
+		{
+			return null;
+		}
+		KeyDerivation event = new KeyDerivation ();
+		event.begin ();
+		return event;
+	}
+
+	@Name ("com.bitsofproof.account.UpdateWithTransaction")
+	@Label ("Update With Transaction")
+	@Category ({ "Bits of Proof", "Account" })
+	@StackTrace (false)
+	static class UpdateWithTransaction extends Event
+	{
+		@Label ("Account Type")
+		String accountType;
+
+		@Label ("Transaction")
+		String hash;
+
+		@Label ("Inputs")
+		int inputs;
+
+		@Label ("Outputs")
+		int outputs;
+
+		@Label ("Modified")
+		boolean modified;
+
+		void finish (String accountType, Transaction t, boolean modified)
+		{
+			end ();
+			if ( shouldCommit () )
+			{
+				this.accountType = accountType;
+				this.hash = t.getHash ();
+				this.inputs = t.getInputs ().size ();
+				this.outputs = t.getOutputs ().size ();
+				this.modified = modified;
+				commit ();
+			}
+		}
+	}
+
+	@Name ("com.bitsofproof.account.CoinSelection")
+	@Label ("Coin Selection")
+	@Category ({ "Bits of Proof", "Account" })
+	@StackTrace (false)
+	static class CoinSelection extends Event
+	{
+		@Label ("Account Type")
+		String accountType;
+
+		@Label ("Amount")
+		long amount;
+
+		@Label ("Fee")
+		long fee;
+
+		@Label ("Selected Inputs")
+		@Description ("0 if the available outputs were not sufficient")
+		int selected;
+
+		void finish (String accountType, long amount, long fee, int selected)
+		{
+			end ();
+			if ( shouldCommit () )
+			{
+				this.accountType = accountType;
+				this.amount = amount;
+				this.fee = fee;
+				this.selected = selected;
+				commit ();
+			}
+		}
+	}
+
+	@Name ("com.bitsofproof.account.Signing")
+	@Label ("Signing")
+	@Category ({ "Bits of Proof", "Account" })
+	@StackTrace (false)
+	static class Signing extends Event
+	{
+		@Label ("Step")
+		@Description ("prepare resolves the keys of all inputs, sign creates one input script")
+		String step;
+
+		@Label ("Input")
+		int input;
+
+		@Label ("Inputs")
+		int inputs;
+
+		void finish (String step, int input, int inputs)
+		{
+			end ();
+			if ( shouldCommit () )
+			{
+				this.step = step;
+				this.input = input;
+				this.inputs = inputs;
+				commit ();
+			}
+		}
+	}
+
+	@Name ("com.bitsofproof.account.BlockApplied")
+	@Label ("Block Applied")
+	@Category ({ "Bits of Proof", "Confirmation" })
+	@StackTrace (false)
+	static class BlockApplied extends Event
+	{
+		@Label ("Block")
+		String hash;
+
+		@Label ("Height")
+		int height;
+
+		@Label ("Transactions")
+		int transactions;
+
+		@Label ("Accounts")
+		int accounts;
+
+		void finish (String hash, int height, int transactions, int accounts)
+		{
+			end ();
+			if ( shouldCommit () )
+			{
+				this.hash = hash;
+				this.height = height;
+				this.transactions = transactions;
+				this.accounts = accounts;
+				commit ();
+			}
+		}
+	}
+
+	@Name ("com.bitsofproof.account.Reorg")
+	@Label ("Reorg")
+	@Category ({ "Bits of Proof", "Confirmation" })
+	@StackTrace (false)
+	static class Reorg extends Event
+	{
+		@Label ("Depth")
+		int depth;
+
+		@Label ("Unconfirmed Transactions")
+		int transactions;
+
+		void finish (int depth, int transactions)
+		{
+			end ();
+			if ( shouldCommit () )
+			{
+				this.depth = depth;
+				this.transactions = transactions;
+				commit ();
+			}
+		}
+	}
+
+	@Name ("com.bitsofproof.account.KeyDerivation")
+	@Label ("Key Derivation")
+	@Category ({ "Bits of Proof", "Account" })
+	@StackTrace (false)
+	static class KeyDerivation extends Event
+	{
+		@Label ("First Key")
+		int from;
+
+		@Label ("Keys Derived")
+		int keys;
+
+		// lookups that derived no key are not recorded
+		void finish (int from, int keys)
+		{
+			end ();
+			if ( keys > 0 && shouldCommit () )
+			{
+				this.from = from;
+				this.keys = keys;
+				commit ();
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// sums of values by block height: a Fenwick tree over buckets of heights answers prefix sums
+// in logarithmic time, the exact sums per height complete the last bucket
+class HeightBuckets
+{
+	private static final int BUCKET_BITS = 7;
+
+	private final TreeMap<Integer, Long> heights = new TreeMap<> ();
+	private long[] tree = new long[0];
+	private int base;
+
+	public void add (int height, long value)
+	{
+		if ( value == 0 )
+		{
+			return;
+		}
+		Long v = heights.get (height);
+		long sum = (v == null ? 0 : v) + value;
+		if ( sum == 0 )
+		{
+			heights.remove (height);
+		}
+		else
+		{
+			heights.put (height, sum);
+		}
+		int i = (height >> BUCKET_BITS) - base + 1;
+		if ( i < 1 || i >= tree.length )
+		{
+			rebuild ();
+			return;
+		}
+		for ( ; i < tree.length; i += i & -i )
+		{
+			tree[i] += value;
+		}
+	}
+
+	// sum of values at heights up to and including the given height
+	public long sum (int height)
+	{
+		long sum = 0;
+		if ( heights.isEmpty () )
+		{
+			return sum;
+		}
+		int bucket = height >> BUCKET_BITS;
+		for ( int i = Math.min (bucket - base, tree.length - 1); i > 0; i -= i & -i )
+		{
+			sum += tree[i];
+		}
+		for ( long v : heights.subMap (bucket << BUCKET_BITS, true, height, true).values () )
+		{
+			sum += v;
+		}
+		return sum;
+	}
+
+	// re-base and leave room to grow, so rebuilds are rare as the chain advances
+	private void rebuild ()
+	{
+		if ( heights.isEmpty () )
+		{
+			tree = new long[0];
+			return;
+		}
+		base = heights.firstKey () >> BUCKET_BITS;
+		int buckets = (heights.lastKey () >> BUCKET_BITS) - base + 1;
+		tree = new long[Integer.highestOneBit (buckets) * 2 + 1];
+		for ( Map.Entry<Integer, Long> e : heights.entrySet () )
+		{
+			for ( int i = (e.getKey () >> BUCKET_BITS) - base + 1; i < tree.length; i += i & -i )
+			{
+				tree[i] += e.getValue ();
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+// ordered keys of account transactions by height and by block time, unconfirmed transactions sort above all heights
+class HistoryIndex
+{
+	static final int UNCONFIRMED = Integer.MAX_VALUE;
+
+	static class Key implements Comparable<Key>
+	{
+		private static final String HIGHEST_HASH = "\uffff";
+
+		final long primary;
+		final long secondary;
+		final String hash;
+
+		Key (long primary, long secondary, String hash)
+		{
+			this.primary = primary;
+			this.secondary = secondary;
+			this.hash = hash;
+		}
+
+		static Key highest (long primary)
+		{
+			return new Key (primary, Long.MAX_VALUE, HIGHEST_HASH);
+		}
+
+		// cursors are keys, so that they stay valid while the index changes and are shared by the parts of an account
+		static Key parse (String cursor)
+		{
+			String[] parts = cursor.split (":", 3);
+			if ( parts.length != 3 )
+			{
+				throw new IllegalArgumentException ("Invalid cursor " + cursor);
+			}
+			return new Key (Long.parseLong (parts[0]), Long.parseLong (parts[1]), parts[2]);
+		}
+
+		@Override
+		public int compareTo (Key o)
+		{
+			int c = Long.compare (primary, o.primary);
+			if ( c == 0 )
+			{
+				c = Long.compare (secondary, o.secondary);
+			}
+			if ( c == 0 )
+			{
+				c = hash.compareTo (o.hash);
+			}
+			return c;
+		}
+
+		@Override
+		public boolean equals (Object obj)
+		{
+			return obj instanceof Key && compareTo ((Key) obj) == 0;
+		}
+
+		@Override
+		public int hashCode ()
+		{
+			return hash.hashCode ();
+		}
+
+		@Override
+		public String toString ()
+		{
+			return primary + ":" + secondary + ":" + hash;
+		}
+	}
+
+	private final TreeSet<Key> byHeight = new TreeSet<> ();
+	private final TreeSet<Key> byTime = new TreeSet<> ();
+	private final Map<String, Key[]> keys = new HashMap<> ();
+
+	static long getSortHeight (Transaction t)
+	{
+		return t.getBlockHash () == null ? UNCONFIRMED : t.getHeight ();
+	}
+
+	public void add (Transaction t)
+	{
+		remove (t.getHash ());
+		Key h = new Key (getSortHeight (t), t.getBlocktime (), t.getHash ());
+		Key b = new Key (t.getBlocktime (), getSortHeight (t), t.getHash ());
+		byHeight.add (h);
+		byTime.add (b);
+		keys.put (t.getHash (), new Key[] { h, b });
+	}
+
+	// height the transaction was indexed at, UNCONFIRMED if it is not in the index
+	public int getHeight (String hash)
+	{
+		Key[] k = keys.get (hash);
+		return k == null ? UNCONFIRMED : (int) k[0].primary;
+	}
+
+	public void remove (String hash)
+	{
+		Key[] k = keys.remove (hash);
+		if ( k != null )
+		{
+			byHeight.remove (k[0]);
+			byTime.remove (k[1]);
+		}
+	}
+
+	public List<Key> pageByHeight (long from, long to, String cursor, int limit)
+	{
+		return page (byHeight, from, to, cursor, limit);
+	}
+
+	public List<Key> pageByTime (long from, long to, String cursor, int limit)
+	{
+		return page (byTime, from, to, cursor, limit);
+	}
+
+	// descending from below the cursor or from the upper bound, O(log n + limit)
+	private static List<Key> page (TreeSet<Key> index, long from, long to, String cursor, int limit)
+	{
+		Key upper = Key.highest (to);
+		NavigableSet<Key> head;
+		if ( cursor != null && Key.parse (cursor).compareTo (upper) <= 0 )
+		{
+			head = index.headSet (Key.parse (cursor), false);
+		}
+		else
+		{
+			head = index.headSet (upper, true);
+		}
+		List<Key> page = new ArrayList<> (Math.min (limit, 1024));
+		Iterator<Key> it = head.descendingIterator ();
+		while ( page.size () < limit && it.hasNext () )
+		{
+			Key k = it.next ();
+			if ( k.primary < from )
+			{
+				break;
+			}
+			page.add (k);
+		}
+		return page;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+public class InMemoryTransactionStore implements AccountManager.TransactionStore
+{
+	private final Map<String, Transaction> transactions = new HashMap<> ();
+
+	@Override
+	public void put (Transaction t)
+	{
+		transactions.put (t.getHash (), t);
+	}
+
+	@Override
+	public Transaction get (String hash)
+	{
+		return transactions.get (hash);
+	}
+
+	@Override
+	public Transaction remove (String hash)
+	{
+		return transactions.remove (hash);
+	}
+
+	@Override
+	public boolean contains (String hash)
+	{
+		return transactions.containsKey (hash);
+	}
+
+	@Override
+	public Collection<Transaction> getResident ()
+	{
+		return Collections.unmodifiableCollection (transactions.values ());
+	}
+
+	@Override
+	public Collection<Transaction> getTransactions ()
+	{
+		return new ArrayList<> (transactions.values ());
+	}
+
+	@Override
+	public boolean isOverBudget ()
+	{
+		return false;
+	}
+
+	@Override
+	public void compact (List<Transaction> candidates)
+	{
+	}
+}
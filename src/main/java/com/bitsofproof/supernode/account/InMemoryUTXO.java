@@ -52,6 +52,9 @@ public class InMemoryUTXO implements AccountManager.UTXO
 
 	private final Map<TxOutKey, TransactionOutput> utxo = new HashMap<TxOutKey, TransactionOutput> ();
 
+	// reused for lookups, this class is not thread safe anyway
+	private final TxOutKey probe = new TxOutKey (null, 0);
+
 	@Override
 	public boolean add (TransactionOutput out)
 	{
@@ -69,13 +72,21 @@ public class InMemoryUTXO implements AccountManager.UTXO
 	@Override
 	public TransactionOutput get (String tx, long ix)
 	{
-		return utxo.get (new TxOutKey (tx, ix));
+		probe.hash = tx;
+		probe.ix = ix;
+		TransactionOutput out = utxo.get (probe);
+		probe.hash = null;
+		return out;
 	}
 
 	@Override
 	public TransactionOutput remove (String tx, long ix)
 	{
-		return utxo.remove (new TxOutKey (tx, ix));
+		probe.hash = tx;
+		probe.ix = ix;
+		TransactionOutput out = utxo.remove (probe);
+		probe.hash = null;
+		return out;
 	}
 
 	@Override
@@ -88,4 +99,10 @@ public class InMemoryUTXO implements AccountManager.UTXO
 		}
 		return s;
 	}
+
+	@Override
+	public int size ()
+	{
+		return utxo.size ();
+	}
 }
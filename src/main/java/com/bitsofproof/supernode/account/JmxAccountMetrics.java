@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// one MXBean per account type, registered on first use as com.bitsofproof.supernode.account:type=AccountMetrics,name=<type>
+public class JmxAccountMetrics implements AccountMetrics
+{
+	private static final Logger log = LoggerFactory.getLogger (JmxAccountMetrics.class);
+
+	private static final String DOMAIN = "com.bitsofproof.supernode.account";
+
+	public interface TypeMetricsMXBean
+	{
+		public long getTransactionsProcessed ();
+
+		public long getTransactionsModified ();
+
+		public long getUpdateP50Micros ();
+
+		public long getUpdateP99Micros ();
+
+		public long getUpdateMaxMicros ();
+
+		public long getLockWaitTotalMicros ();
+
+		public long getLockWaitP99Micros ();
+
+		public int getAccounts ();
+
+		public long getOutputCount ();
+
+		public long getBalance ();
+
+		public long getConfirmed ();
+
+		public long getReceiving ();
+
+		public long getChange ();
+
+		public long getSending ();
+
+		public long getBlocksApplied ();
+
+		public long getBlockP50Micros ();
+
+		public long getBlockP99Micros ();
+
+		public long getReorgs ();
+
+		public long getMaxReorgDepth ();
+
+		public long getListenerDispatchP50Micros ();
+
+		public long getListenerDispatchP99Micros ();
+
+		public long getPaidP50Millis ();
+
+		public long getPaidP99Millis ();
+
+		public long getConfirmedP50Millis ();
+
+		public long getConfirmedP99Millis ();
+	}
+
+	// power of two buckets of nanoseconds, percentiles are reported as the upper bound of their bucket
+	private static class Histogram
+	{
+		private final AtomicLongArray buckets = new AtomicLongArray (64);
+		private final AtomicLong count = new AtomicLong ();
+		private final AtomicLong sum = new AtomicLong ();
+		private final AtomicLong max = new AtomicLong ();
+
+		public void record (long value)
+		{
+			if ( value < 0 )
+			{
+				value = 0;
+			}
+			buckets.incrementAndGet (64 - Long.numberOfLeadingZeros (value) - (value == 0 ? 0 : 1));
+			count.incrementAndGet ();
+			sum.addAndGet (value);
+			long m;
+			while ( (m = max.get ()) < value && !max.compareAndSet (m, value) )
+			{
+			}
+		}
+
+		public long getCount ()
+		{
+			return count.get ();
+		}
+
+		public long getSum ()
+		{
+			return sum.get ();
+		}
+
+		public long getMax ()
+		{
+			return max.get ();
+		}
+
+		public long getPercentile (double p)
+		{
+			long n = count.get ();
+			if ( n == 0 )
+			{
+				return 0;
+			}
+			long rank = (long) Math.ceil (p * n);
+			long seen = 0;
+			for ( int i = 0; i < 64; ++i )
+			{
+				seen += buckets.get (i);
+				if ( seen >= rank )
+				{
+					return i == 63 ? Long.MAX_VALUE : Math.min ((1L << (i + 1)) - 1, max.get ());
+				}
+			}
+			return max.get ();
+		}
+	}
+
+	private static class TypeMetrics implements TypeMetricsMXBean
+	{
+		private final Set<AccountManager> accounts = new CopyOnWriteArraySet<> ();
+		private final AtomicLong modified = new AtomicLong ();
+		private final Histogram update = new Histogram ();
+		private final Histogram lockWait = new Histogram ();
+		private final Histogram block = new Histogram ();
+		private final Histogram reorg = new Histogram ();
+		private final Histogram listener = new Histogram ();
+		private final Histogram paid = new Histogram ();
+		private final Histogram confirmed = new Histogram ();
+
+		@Override
+		public long getTransactionsProcessed ()
+		{
+			return update.getCount ();
+		}
+
+		@Override
+		public long getTransactionsModified ()
+		{
+			return modified.get ();
+		}
+
+		@Override
+		public long getUpdateP50Micros ()
+		{
+			return update.getPercentile (0.5) / 1000;
+		}
+
+		@Override
+		public long getUpdateP99Micros ()
+		{
+			return update.getPercentile (0.99) / 1000;
+		}
+
+		@Override
+		public long getUpdateMaxMicros ()
+		{
+			return update.getMax () / 1000;
+		}
+
+		@Override
+		public long getLockWaitTotalMicros ()
+		{
+			return lockWait.getSum () / 1000;
+		}
+
+		@Override
+		public long getLockWaitP99Micros ()
+		{
+			return lockWait.getPercentile (0.99) / 1000;
+		}
+
+		@Override
+		public int getAccounts ()
+		{
+			return accounts.size ();
+		}
+
+		@Override
+		public long getOutputCount ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getOutputCount ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getBalance ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getBalance ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getConfirmed ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getConfirmed ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getReceiving ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getReceiving ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getChange ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getChange ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getSending ()
+		{
+			long s = 0;
+			for ( AccountManager a : accounts )
+			{
+				s += a.getSending ();
+			}
+			return s;
+		}
+
+		@Override
+		public long getBlocksApplied ()
+		{
+			return block.getCount ();
+		}
+
+		@Override
+		public long getBlockP50Micros ()
+		{
+			return block.getPercentile (0.5) / 1000;
+		}
+
+		@Override
+		public long getBlockP99Micros ()
+		{
+			return block.getPercentile (0.99) / 1000;
+		}
+
+		@Override
+		public long getReorgs ()
+		{
+			return reorg.getCount ();
+		}
+
+		@Override
+		public long getMaxReorgDepth ()
+		{
+			return reorg.getMax ();
+		}
+
+		@Override
+		public long getListenerDispatchP50Micros ()
+		{
+			return listener.getPercentile (0.5) / 1000;
+		}
+
+		@Override
+		public long getListenerDispatchP99Micros ()
+		{
+			return listener.getPercentile (0.99) / 1000;
+		}
+
+		@Override
+		public long getPaidP50Millis ()
+		{
+			return paid.getPercentile (0.5) / 1000000;
+		}
+
+		@Override
+		public long getPaidP99Millis ()
+		{
+			return paid.getPercentile (0.99) / 1000000;
+		}
+
+		@Override
+		public long getConfirmedP50Millis ()
+		{
+			return confirmed.getPercentile (0.5) / 1000000;
+		}
+
+		@Override
+		public long getConfirmedP99Millis ()
+		{
+			return confirmed.getPercentile (0.99) / 1000000;
+		}
+	}
+
+	private final MBeanServer server;
+	private final ConcurrentMap<String, TypeMetrics> types = new ConcurrentHashMap<> ();
+
+	public JmxAccountMetrics ()
+	{
+		this (ManagementFactory.getPlatformMBeanServer ());
+	}
+
+	public JmxAccountMetrics (MBeanServer server)
+	{
+		this.server = server;
+	}
+
+	private TypeMetrics getTypeMetrics (String type)
+	{
+		TypeMetrics m = types.get (type);
+		if ( m == null )
+		{
+			TypeMetrics created = new TypeMetrics ();
+			m = types.putIfAbsent (type, created);
+			if ( m == null )
+			{
+				m = created;
+				try
+				{
+					server.registerMBean (m, new ObjectName (DOMAIN + ":type=AccountMetrics,name=" + ObjectName.quote (type)));
+				}
+				catch ( JMException e )
+				{
+					log.error ("Can not register metrics of " + type, e);
+				}
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public void register (String type, AccountManager account)
+	{
+		getTypeMetrics (type).accounts.add (account);
+	}
+
+	@Override
+	public void unregister (String type, AccountManager account)
+	{
+		getTypeMetrics (type).accounts.remove (account);
+	}
+
+	@Override
+	public void transactionProcessed (String type, boolean modified, long duration)
+	{
+		TypeMetrics m = getTypeMetrics (type);
+		m.update.record (duration);
+		if ( modified )
+		{
+			m.modified.incrementAndGet ();
+		}
+	}
+
+	@Override
+	public void lockWaited (String type, long duration)
+	{
+		getTypeMetrics (type).lockWait.record (duration);
+	}
+
+	@Override
+	public void blockApplied (String type, int transactions, long duration)
+	{
+		getTypeMetrics (type).block.record (duration);
+	}
+
+	@Override
+	public void reorg (String type, int depth)
+	{
+		getTypeMetrics (type).reorg.record (depth);
+	}
+
+	@Override
+	public void listenerDispatched (String type, long duration)
+	{
+		getTypeMetrics (type).listener.record (duration);
+	}
+
+	@Override
+	public void paymentRequestPaid (String type, long sinceFirstSeen)
+	{
+		getTypeMetrics (type).paid.record (sinceFirstSeen);
+	}
+
+	@Override
+	public void paymentRequestConfirmed (String type, long sinceFirstSeen)
+	{
+		getTypeMetrics (type).confirmed.record (sinceFirstSeen);
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.common.Key;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// co-signer holding its key in process, stands in for remote signers
+public class LocalCoSigner implements CoSigner
+{
+	private final Key key;
+
+	public LocalCoSigner (Key key)
+	{
+		this.key = key;
+	}
+
+	@Override
+	public byte[] getPublic ()
+	{
+		return key.getPublic ();
+	}
+
+	@Override
+	public byte[] sign (byte[] hash) throws ValidationException
+	{
+		return key.sign (hash);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.BCSAPI;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionListener;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.Key;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class MultisigAccountManager extends BaseTransactionFactory
+{
+	private static final Logger log = LoggerFactory.getLogger (MultisigAccountManager.class);
+
+	// OP_HASH160 <20 bytes> OP_EQUAL
+	private static final int P2SH_SCRIPT_LENGTH = 23;
+
+	private final Map<Address, byte[]> redeemScriptByAddress = new HashMap<> ();
+	private final List<Address> addresses = new ArrayList<> ();
+	private final List<CoSigner> signers = new ArrayList<> ();
+	private static final SecureRandom rnd = new SecureRandom ();
+	private ExecutorService coSigningExecutor;
+
+	public synchronized Address addRedeemScript (byte[] redeemScript) throws ValidationException
+	{
+		MultisigTransactionSource.getKeys (redeemScript);
+		Address address = new Address (Address.Type.P2SH, Hash.keyHash (redeemScript));
+		if ( redeemScriptByAddress.put (address, redeemScript) == null )
+		{
+			addresses.add (address);
+		}
+		return address;
+	}
+
+	public ExecutorService getCoSigningExecutor ()
+	{
+		return coSigningExecutor;
+	}
+
+	// must not be the signing executor, signing tasks of inputs wait for the co-signing tasks
+	public void setCoSigningExecutor (ExecutorService coSigningExecutor)
+	{
+		this.coSigningExecutor = coSigningExecutor;
+	}
+
+	public synchronized void addCoSigner (CoSigner signer)
+	{
+		signers.add (signer);
+	}
+
+	@Override
+	protected synchronized TransactionSource createTransactionSource (TransactionOutput output)
+	{
+		byte[] redeemScript = redeemScriptByAddress.get (output.getOutputAddress ());
+		if ( redeemScript != null )
+		{
+			try
+			{
+				return new MultisigTransactionSource (output, this, redeemScript, signers, coSigningExecutor);
+			}
+			catch ( ValidationException e )
+			{
+				log.trace ("Can not sign for " + output.getOutputAddress () + ": " + e.getMessage ());
+			}
+		}
+		return super.createTransactionSource (output);
+	}
+
+	@Override
+	protected int getChangeScriptLength ()
+	{
+		return P2SH_SCRIPT_LENGTH;
+	}
+
+	@Override
+	public Key getKeyForAddress (Address address)
+	{
+		return null;
+	}
+
+	@Override
+	public synchronized Set<Address> getAddresses ()
+	{
+		return new HashSet<Address> (redeemScriptByAddress.keySet ());
+	}
+
+	@Override
+	public synchronized boolean isOwnAddress (Address address)
+	{
+		return redeemScriptByAddress.containsKey (address);
+	}
+
+	private synchronized Address getNextAddress () throws ValidationException
+	{
+		if ( addresses.isEmpty () )
+		{
+			throw new ValidationException ("No redeem script");
+		}
+		return addresses.get (rnd.nextInt (addresses.size ()));
+	}
+
+	@Override
+	public Address getNextChangeAddress () throws ValidationException
+	{
+		return getNextAddress ();
+	}
+
+	@Override
+	public Address getNextReceiverAddress () throws ValidationException
+	{
+		return getNextAddress ();
+	}
+
+	@Override
+	public synchronized void syncHistory (BCSAPI api) throws BCSAPIException
+	{
+		reset ();
+		log.trace ("Sync naddr: " + addresses.size ());
+		api.scanTransactionsForAddresses (getAddresses (), getCreated (), new TransactionListener ()
+		{
+			@Override
+			public boolean process (Transaction t)
+			{
+				return updateWithTransaction (t);
+			}
+		});
+		log.trace ("Sync finished naddr: " + addresses.size ());
+	}
+
+	@Override
+	public synchronized void sync (BCSAPI api) throws BCSAPIException
+	{
+		reset ();
+		log.trace ("Sync naddr: " + addresses.size ());
+		api.scanUTXOForAddresses (getAddresses (), new TransactionListener ()
+		{
+			@Override
+			public boolean process (Transaction t)
+			{
+				return updateWithTransaction (t);
+			}
+		});
+		log.trace ("Sync finished naddr: " + addresses.size ());
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ScriptFormat;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class MultisigTransactionSource extends TransactionSource
+{
+	private static final Logger log = LoggerFactory.getLogger (MultisigTransactionSource.class);
+
+	private static final int MAXIMUM_SIGNATURE_LENGTH = 73;
+	private static final int OP_1 = 0x51;
+	private static final int OP_16 = 0x60;
+	private static final int OP_CHECKMULTISIG = 0xae;
+	// a P2SH input pushes the redeem script, pushes are limited to 520 bytes, so 15 compressed keys at most
+	public static final int MAXIMUM_REDEEM_SCRIPT_LENGTH = 520;
+
+	private final byte[] redeemScript;
+	private final int required;
+	private final List<byte[]> keys;
+	private final List<CoSigner> signers;
+	private final ExecutorService executor;
+
+	public MultisigTransactionSource (TransactionOutput source, TransactionFactory account, byte[] redeemScript, List<CoSigner> signers,
+			ExecutorService executor) throws ValidationException
+	{
+		super (source, account);
+		this.redeemScript = redeemScript;
+		this.keys = getKeys (redeemScript);
+		this.required = (redeemScript[0] & 0xff) - OP_1 + 1;
+		this.executor = executor;
+		// order signers as their keys in the redeem script, signatures must follow that order
+		this.signers = new ArrayList<> ();
+		for ( byte[] key : keys )
+		{
+			for ( CoSigner s : signers )
+			{
+				if ( Arrays.equals (key, s.getPublic ()) )
+				{
+					this.signers.add (s);
+					break;
+				}
+			}
+		}
+		if ( this.signers.size () < required )
+		{
+			throw new ValidationException ("Have " + this.signers.size () + " of " + required + " required signers");
+		}
+	}
+
+	public static byte[] createRedeemScript (int required, List<byte[]> keys) throws ValidationException
+	{
+		if ( required < 1 || required > keys.size () || keys.size () > 16 )
+		{
+			throw new ValidationException ("Invalid multisig " + required + " of " + keys.size ());
+		}
+		int length = 3;
+		for ( byte[] key : keys )
+		{
+			length += 1 + key.length;
+		}
+		if ( length > MAXIMUM_REDEEM_SCRIPT_LENGTH )
+		{
+			throw new ValidationException ("Redeem script of " + length + " bytes could never be spent");
+		}
+		byte[] script = new byte[length];
+		int p = 0;
+		script[p++] = (byte) (OP_1 + required - 1);
+		for ( byte[] key : keys )
+		{
+			script[p++] = (byte) key.length;
+			System.arraycopy (key, 0, script, p, key.length);
+			p += key.length;
+		}
+		script[p++] = (byte) (OP_1 + keys.size () - 1);
+		script[p] = (byte) OP_CHECKMULTISIG;
+		return script;
+	}
+
+	// public keys of a script OP_m <key>... OP_n OP_CHECKMULTISIG
+	public static List<byte[]> getKeys (byte[] redeemScript) throws ValidationException
+	{
+		List<byte[]> keys = new ArrayList<> ();
+		int length = redeemScript.length;
+		if ( length < 3 || (redeemScript[length - 1] & 0xff) != OP_CHECKMULTISIG )
+		{
+			throw new ValidationException ("Not a multisig script");
+		}
+		if ( length > MAXIMUM_REDEEM_SCRIPT_LENGTH )
+		{
+			throw new ValidationException ("Redeem script of " + length + " bytes could never be spent");
+		}
+		int m = redeemScript[0] & 0xff;
+		int n = redeemScript[length - 2] & 0xff;
+		if ( m < OP_1 || m > OP_16 || n < m || n > OP_16 )
+		{
+			throw new ValidationException ("Not a multisig script");
+		}
+		int p = 1;
+		while ( p < length - 2 )
+		{
+			int l = redeemScript[p++] & 0xff;
+			if ( (l != 33 && l != 65) || p + l > length - 2 )
+			{
+				throw new ValidationException ("Not a multisig script");
+			}
+			keys.add (Arrays.copyOfRange (redeemScript, p, p + l));
+			p += l;
+		}
+		if ( keys.size () != n - OP_1 + 1 )
+		{
+			throw new ValidationException ("Not a multisig script");
+		}
+		return keys;
+	}
+
+	public byte[] getRedeemScript ()
+	{
+		return Arrays.copyOf (redeemScript, redeemScript.length);
+	}
+
+	public int getRequired ()
+	{
+		return required;
+	}
+
+	@Override
+	protected void prepareSpend (SigningContext context) throws ValidationException
+	{
+	}
+
+	@Override
+	public int getMaximumScriptLength () throws ValidationException
+	{
+		int push = redeemScript.length < 0x4c ? 1 : redeemScript.length <= 0xff ? 2 : 3;
+		return 1 + required * (1 + MAXIMUM_SIGNATURE_LENGTH) + push + redeemScript.length;
+	}
+
+	@Override
+	protected byte[] spend (int ix, SigningContext context) throws ValidationException
+	{
+		final byte[] hash = context.hashTransaction (ix, redeemScript);
+		byte[][] signatures = new byte[signers.size ()][];
+		if ( executor == null )
+		{
+			int collected = 0;
+			for ( int i = 0; i < signers.size () && collected < required; ++i )
+			{
+				signatures[i] = sign (signers.get (i), hash);
+				if ( signatures[i] != null )
+				{
+					++collected;
+				}
+			}
+		}
+		else
+		{
+			// ask all signers at once, the first required signatures to arrive are used and the rest is cancelled,
+			// a signer that fails only counts as missing
+			CompletionService<byte[]> completion = new ExecutorCompletionService<> (executor);
+			Map<Future<byte[]>, Integer> index = new HashMap<> ();
+			for ( int i = 0; i < signers.size (); ++i )
+			{
+				final CoSigner s = signers.get (i);
+				index.put (completion.submit (new Callable<byte[]> ()
+				{
+					@Override
+					public byte[] call ()
+					{
+						return sign (s, hash);
+					}
+				}), i);
+			}
+			try
+			{
+				int collected = 0;
+				for ( int pending = signers.size (); pending > 0 && collected < required; --pending )
+				{
+					Future<byte[]> f = completion.take ();
+					byte[] signature;
+					try
+					{
+						signature = f.get ();
+					}
+					catch ( ExecutionException e )
+					{
+						signature = null;
+					}
+					if ( signature != null )
+					{
+						signatures[index.get (f)] = signature;
+						++collected;
+					}
+				}
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread ().interrupt ();
+				throw new ValidationException ("Interrupted while collecting signatures");
+			}
+			finally
+			{
+				for ( Future<byte[]> f : index.keySet () )
+				{
+					f.cancel (true);
+				}
+			}
+		}
+		ScriptFormat.Writer sw = new ScriptFormat.Writer ();
+		// OP_CHECKMULTISIG pops one element too many
+		sw.writeData (new byte[0]);
+		int collected = 0;
+		for ( int i = 0; i < signatures.length && collected < required; ++i )
+		{
+			if ( signatures[i] != null )
+			{
+				sw.writeData (signatures[i]);
+				++collected;
+			}
+		}
+		if ( collected < required )
+		{
+			throw new ValidationException ("Collected " + collected + " of " + required + " required signatures");
+		}
+		sw.writeData (redeemScript);
+		return sw.toByteArray ();
+	}
+
+	// signature with hash type, or null if the signer failed
+	private static byte[] sign (CoSigner signer, byte[] hash)
+	{
+		try
+		{
+			byte[] sig = signer.sign (hash);
+			if ( sig == null )
+			{
+				return null;
+			}
+			byte[] sigPlusType = new byte[sig.length + 1];
+			System.arraycopy (sig, 0, sigPlusType, 0, sig.length);
+			sigPlusType[sigPlusType.length - 1] = (byte) (ScriptFormat.SIGHASH_ALL & 0xff);
+			return sigPlusType;
+		}
+		catch ( ValidationException | RuntimeException e )
+		{
+			log.trace ("Co-signer failed: {}", e.getMessage ());
+			return null;
+		}
+	}
+}
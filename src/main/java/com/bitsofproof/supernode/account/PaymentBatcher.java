@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.BCSAPI;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class PaymentBatcher
+{
+	private static final Logger log = LoggerFactory.getLogger (PaymentBatcher.class);
+
+	private final TransactionFactory account;
+	private final BCSAPI api;
+	private final PaymentOptions options;
+	private final ScheduledExecutorService scheduler;
+
+	private int maxPayouts = 100;
+	private long maxDelay = 60000;
+	private long targetFeePerPayout = 0;
+
+	private final List<Payout> queue = new ArrayList<> ();
+	private final Object paying = new Object ();
+	private ScheduledFuture<?> timer;
+
+	private final Set<PayoutListener> payoutListener = Collections.synchronizedSet (new HashSet<PayoutListener> ());
+
+	private final Runnable flusher = new Runnable ()
+	{
+		@Override
+		public void run ()
+		{
+			flush ();
+		}
+	};
+
+	public PaymentBatcher (TransactionFactory account, BCSAPI api, PaymentOptions options, ScheduledExecutorService scheduler)
+	{
+		this.account = account;
+		this.api = api;
+		this.options = options;
+		this.scheduler = scheduler;
+	}
+
+	public int getMaxPayouts ()
+	{
+		return maxPayouts;
+	}
+
+	public void setMaxPayouts (int maxPayouts)
+	{
+		this.maxPayouts = maxPayouts;
+	}
+
+	public long getMaxDelay ()
+	{
+		return maxDelay;
+	}
+
+	public void setMaxDelay (long maxDelay)
+	{
+		this.maxDelay = maxDelay;
+	}
+
+	public long getTargetFeePerPayout ()
+	{
+		return targetFeePerPayout;
+	}
+
+	public void setTargetFeePerPayout (long targetFeePerPayout)
+	{
+		this.targetFeePerPayout = targetFeePerPayout;
+	}
+
+	public void addPayoutListener (PayoutListener listener)
+	{
+		payoutListener.add (listener);
+	}
+
+	public void removePayoutListener (PayoutListener listener)
+	{
+		payoutListener.remove (listener);
+	}
+
+	public synchronized int getQueued ()
+	{
+		return queue.size ();
+	}
+
+	public Payout pay (Address receiver, long amount)
+	{
+		Payout payout = new Payout (receiver, amount);
+		boolean full;
+		synchronized ( this )
+		{
+			queue.add (payout);
+			// without a scheduler the delay is checked as the next payout is submitted
+			full = queue.size () >= maxPayouts || (scheduler == null && payout.getQueued () - queue.get (0).getQueued () >= maxDelay)
+					|| isCheapEnough ();
+			if ( !full && timer == null && scheduler != null )
+			{
+				timer = scheduler.schedule (flusher, maxDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+		if ( full )
+		{
+			if ( scheduler != null )
+			{
+				scheduler.execute (flusher);
+			}
+			else
+			{
+				flush ();
+			}
+		}
+		return payout;
+	}
+
+	// the fee of a batch is shared by its payouts, so waiting for more payouts lowers the fee each pays
+	private boolean isCheapEnough ()
+	{
+		if ( targetFeePerPayout <= 0 )
+		{
+			return false;
+		}
+		int payouts = queue.size ();
+		if ( !options.isCalculated () )
+		{
+			return options.getFee () / payouts <= targetFeePerPayout;
+		}
+		if ( !(account instanceof BaseTransactionFactory) )
+		{
+			return BaseTransactionFactory.estimateFee (BaseTransactionFactory.estimateSize (1, payouts + 1), options.getPriority ()) / payouts <= targetFeePerPayout;
+		}
+		BaseTransactionFactory factory = (BaseTransactionFactory) account;
+		long amount = 0;
+		for ( Payout p : queue )
+		{
+			amount += p.getAmount ();
+		}
+		// the inputs a payment would select now, the fee at the rate of the factory's estimator if it has one
+		List<TransactionSource> sources = factory.getSufficientSources (amount, 0);
+		int inputs = sources == null ? 1 : Math.max (1, sources.size ());
+		return factory.calculateFee (BaseTransactionFactory.estimateSize (inputs, payouts + 1), options.getPriority ()) / payouts <= targetFeePerPayout;
+	}
+
+	public void flush ()
+	{
+		List<Payout> batch;
+		synchronized ( this )
+		{
+			if ( timer != null )
+			{
+				timer.cancel (false);
+				timer = null;
+			}
+			if ( queue.isEmpty () )
+			{
+				return;
+			}
+			batch = new ArrayList<> (queue.subList (0, Math.min (maxPayouts, queue.size ())));
+			queue.subList (0, batch.size ()).clear ();
+			if ( !queue.isEmpty () && scheduler != null )
+			{
+				timer = scheduler.schedule (flusher, 0, TimeUnit.MILLISECONDS);
+			}
+		}
+		payBatch (batch);
+	}
+
+	private void payBatch (List<Payout> batch)
+	{
+		// a payout that can not be paid at all fails alone, the others are still paid together
+		batch = new ArrayList<> (batch);
+		for ( Iterator<Payout> i = batch.iterator (); i.hasNext (); )
+		{
+			Payout p = i.next ();
+			String reason = validate (p);
+			if ( reason != null )
+			{
+				log.trace ("Dropped " + p + ": " + reason);
+				i.remove ();
+				p.failed (reason);
+				notifyListener (p);
+			}
+		}
+		if ( batch.isEmpty () )
+		{
+			return;
+		}
+		List<Address> receiver = new ArrayList<> ();
+		List<Long> amounts = new ArrayList<> ();
+		for ( Payout p : batch )
+		{
+			receiver.add (p.getAddress ());
+			amounts.add (p.getAmount ());
+		}
+		Transaction t;
+		try
+		{
+			// pay from one thread at a time so that consecutive batches do not select the same inputs
+			synchronized ( paying )
+			{
+				t = account.pay (receiver, amounts, options);
+				account.reserveInputs (t);
+			}
+		}
+		catch ( ValidationException | RuntimeException e )
+		{
+			log.trace ("Failed to pay batch of " + batch.size () + ": " + e.getMessage ());
+			failed (batch, e.getMessage ());
+			return;
+		}
+		if ( api != null )
+		{
+			try
+			{
+				api.sendTransaction (t);
+			}
+			catch ( BCSAPIException | RuntimeException e )
+			{
+				log.trace ("Failed to send batch " + t.getHash () + ": " + e.getMessage ());
+				account.releaseInputs (t);
+				failed (batch, e.getMessage ());
+				return;
+			}
+		}
+		log.trace ("Paid batch of " + batch.size () + " with " + t.getHash ());
+		for ( Payout p : batch )
+		{
+			p.paid (t);
+			notifyListener (p);
+		}
+	}
+
+	private static String validate (Payout p)
+	{
+		if ( p.getAddress () == null )
+		{
+			return "No receiver address";
+		}
+		if ( p.getAmount () <= 0 )
+		{
+			return "Amount " + p.getAmount () + " is not positive";
+		}
+		try
+		{
+			p.getAddress ().getAddressScript ();
+		}
+		catch ( ValidationException | RuntimeException e )
+		{
+			return "Can not pay to " + p.getAddress () + ": " + e.getMessage ();
+		}
+		return null;
+	}
+
+	private void failed (List<Payout> batch, String reason)
+	{
+		for ( Payout p : batch )
+		{
+			p.failed (reason);
+			notifyListener (p);
+		}
+	}
+
+	private void notifyListener (Payout p)
+	{
+		ArrayList<PayoutListener> al = new ArrayList<> ();
+		synchronized ( payoutListener )
+		{
+			al.addAll (payoutListener);
+		}
+		for ( PayoutListener l : al )
+		{
+			try
+			{
+				if ( p.getState () == Payout.State.PAID )
+				{
+					l.paid (p);
+				}
+				else
+				{
+					l.failed (p);
+				}
+			}
+			catch ( Exception e )
+			{
+				log.error ("Uncaught exception in payout listener", e);
+			}
+		}
+	}
+}
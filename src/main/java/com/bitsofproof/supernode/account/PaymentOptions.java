@@ -28,6 +28,9 @@ public class PaymentOptions
 	private FeeCalculation calculation;
 	private OutputOrder outputOrder = OutputOrder.SHUFFLED;
 	private int change = 1;
+	private boolean reserveInputs = false;
+	private boolean spendUnconfirmed = false;
+	private boolean replaceable = false;
 
 	public static final PaymentOptions common = new PaymentOptions (FeeSource.SENDER);
 	public static final PaymentOptions lowPriority = new PaymentOptions (Priority.LOW);
@@ -112,6 +115,21 @@ public class PaymentOptions
 		return outputOrder == OutputOrder.SHUFFLED;
 	}
 
+	public boolean isReservingInputs ()
+	{
+		return reserveInputs;
+	}
+
+	public boolean isSpendingUnconfirmed ()
+	{
+		return spendUnconfirmed;
+	}
+
+	public boolean isReplaceable ()
+	{
+		return replaceable;
+	}
+
 	public int getChange ()
 	{
 		return change;
@@ -172,11 +190,27 @@ public class PaymentOptions
 		this.change = change;
 	}
 
+	public void setReserveInputs (boolean reserveInputs)
+	{
+		this.reserveInputs = reserveInputs;
+	}
+
+	public void setSpendUnconfirmed (boolean spendUnconfirmed)
+	{
+		this.spendUnconfirmed = spendUnconfirmed;
+	}
+
+	public void setReplaceable (boolean replaceable)
+	{
+		this.replaceable = replaceable;
+	}
+
 	@Override
 	public String toString ()
 	{
 		return "PaymentOptions [fee=" + fee + ", calculation=" + calculation + ", source=" + source + ", priority=" + priority + ", outputOrder=" + outputOrder
-				+ ", change=" + change + "]";
+				+ ", change=" + change + ", reserveInputs=" + reserveInputs
+				+ ", spendUnconfirmed=" + spendUnconfirmed + ", replaceable=" + replaceable + "]";
 	}
 
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+public class PaymentRequestEventPublisher extends SequencedEventPublisher<PaymentRequestEventPublisher.Event> implements PaymentRequestListener
+{
+	public enum Type
+	{
+		PAID, CONFIRMED, DOUBLE_SPENT, UNCONFIRMED
+	};
+
+	public static class Event
+	{
+		private final Type type;
+		private final PaymentRequest request;
+
+		public Event (Type type, PaymentRequest request)
+		{
+			this.type = type;
+			this.request = request;
+		}
+
+		public Type getType ()
+		{
+			return type;
+		}
+
+		public PaymentRequest getRequest ()
+		{
+			return request;
+		}
+	}
+
+	public PaymentRequestEventPublisher (int replayCapacity, int bufferLimit)
+	{
+		super (replayCapacity, bufferLimit);
+	}
+
+	@Override
+	public void paid (PaymentRequest p)
+	{
+		publish (new Event (Type.PAID, p));
+	}
+
+	@Override
+	public void confirmed (PaymentRequest p)
+	{
+		publish (new Event (Type.CONFIRMED, p));
+	}
+
+	@Override
+	public void doubleSpent (PaymentRequest p)
+	{
+		publish (new Event (Type.DOUBLE_SPENT, p));
+	}
+
+	@Override
+	public void unconfirmed (PaymentRequest p)
+	{
+		publish (new Event (Type.UNCONFIRMED, p));
+	}
+}
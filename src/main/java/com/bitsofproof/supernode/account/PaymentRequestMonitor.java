@@ -26,6 +26,7 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 			.synchronizedMap (new HashMap<PaymentRequest, Set<PaymentRequestListener>> ());
 	private Map<Address, PaymentRequest> addressToRequest = Collections
 			.synchronizedMap (new HashMap<Address, PaymentRequest> ());
+	private final Map<PaymentRequest, Long> firstSeen = Collections.synchronizedMap (new HashMap<PaymentRequest, Long> ());
 
 	public PaymentRequestMonitor (BCSAPI api, ConfirmationManager confirmationManager, Collection<PaymentRequest> pastRequests) throws BCSAPIException
 	{
@@ -63,7 +64,7 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 				PaymentRequest request = addressToRequest.get (out.getOutputAddress ());
 				if ( request != null )
 				{
-					log.trace ("payment " + t.getHash () + " to " + request.getAddress ());
+					log.trace ("payment {} to {}", t.getHash (), request.getAddress ());
 					request.setConfirmationHeight (Math.max (request.getConfirmationHeight (), t.getHeight ()));
 					request.setReceivedAmount (request.getReceivedAmount () + out.getValue ());
 				}
@@ -117,11 +118,31 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 				{
 					paymentRequestListener.remove (request);
 					addressToRequest.remove (request.getAddress ());
+					firstSeen.remove (request);
 				}
 			}
 		}
 	}
 
+	// remember when a payment was first seen to measure detection latency
+	@Override
+	public boolean process (Transaction t)
+	{
+		if ( getMetrics () != AccountMetrics.NOOP )
+		{
+			long now = System.nanoTime ();
+			for ( TransactionOutput out : t.getOutputs () )
+			{
+				PaymentRequest request = addressToRequest.get (out.getOutputAddress ());
+				if ( request != null && !firstSeen.containsKey (request) )
+				{
+					firstSeen.put (request, now);
+				}
+			}
+		}
+		return super.process (t);
+	}
+
 	@Override
 	public void confirmed (Transaction t)
 	{
@@ -132,19 +153,19 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 			{
 				if ( t.getBlockHash () != null )
 				{
-					log.trace ("Confirmed " + t.getHash ());
+					log.trace ("Confirmed {}", t.getHash ());
 					request.setConfirmationHeight (Math.max (request.getConfirmationHeight (), t.getHeight ()));
 				}
 				else
 				{
 					if ( t.getOffendingTx () != null )
 					{
-						log.trace ("Double spend " + t.getHash ());
+						log.trace ("Double spend {}", t.getHash ());
 						request.setConfirmationHeight (-1);
 					}
 					else
 					{
-						log.trace ("Unconfirmed " + t.getHash ());
+						log.trace ("Unconfirmed {}", t.getHash ());
 						int prev = request.getConfirmationHeight ();
 						request.setConfirmationHeight (0);
 						if ( prev != 0 || request.getExpectedConfirmations () == 0 )
@@ -216,6 +237,7 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 
 	private void notifyDoubleSpent (PaymentRequest request)
 	{
+		firstSeen.remove (request);
 		Set<PaymentRequestListener> listenerSet = paymentRequestListener.get (request);
 		if ( listenerSet != null )
 		{
@@ -228,6 +250,11 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 
 	private void notifyConfirmed (PaymentRequest request)
 	{
+		Long seen = firstSeen.remove (request);
+		if ( seen != null )
+		{
+			getMetrics ().paymentRequestConfirmed (getMetricsType (), System.nanoTime () - seen);
+		}
 		Set<PaymentRequestListener> listenerSet = paymentRequestListener.get (request);
 		if ( listenerSet != null )
 		{
@@ -240,6 +267,11 @@ public class PaymentRequestMonitor extends AddressListAccountManager implements
 
 	private void notifyPaid (PaymentRequest request)
 	{
+		Long seen = firstSeen.get (request);
+		if ( seen != null )
+		{
+			getMetrics ().paymentRequestPaid (getMetricsType (), System.nanoTime () - seen);
+		}
 		Set<PaymentRequestListener> listenerSet = paymentRequestListener.get (request);
 		if ( listenerSet != null )
 		{
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+
+public class Payout
+{
+	public enum State
+	{
+		QUEUED, PAID, FAILED
+	};
+
+	private final Address address;
+	private final long amount;
+	private final long queued;
+	private State state = State.QUEUED;
+	private Transaction transaction;
+	private String failure;
+
+	public Payout (Address address, long amount)
+	{
+		this.address = address;
+		this.amount = amount;
+		this.queued = System.currentTimeMillis ();
+	}
+
+	public Address getAddress ()
+	{
+		return address;
+	}
+
+	public long getAmount ()
+	{
+		return amount;
+	}
+
+	public long getQueued ()
+	{
+		return queued;
+	}
+
+	public synchronized State getState ()
+	{
+		return state;
+	}
+
+	public synchronized Transaction getTransaction ()
+	{
+		return transaction;
+	}
+
+	public synchronized String getFailure ()
+	{
+		return failure;
+	}
+
+	protected synchronized void paid (Transaction transaction)
+	{
+		this.transaction = transaction;
+		this.state = State.PAID;
+	}
+
+	protected synchronized void failed (String failure)
+	{
+		this.failure = failure;
+		this.state = State.FAILED;
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "Payout [address=" + address + ", amount=" + amount + ", state=" + state + "]";
+	}
+}
@@ -0,0 +1,8 @@
+package com.bitsofproof.supernode.account;
+
+public interface PayoutListener
+{
+	public void paid (Payout p);
+
+	public void failed (Payout p);
+}
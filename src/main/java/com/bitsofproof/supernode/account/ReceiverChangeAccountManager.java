@@ -15,8 +15,10 @@
  */
 package com.bitsofproof.supernode.account;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.bitsofproof.supernode.api.Address;
@@ -30,10 +32,18 @@ import com.bitsofproof.supernode.common.ValidationException;
 
 public class ReceiverChangeAccountManager extends BaseTransactionFactory
 {
-	private final ExtendedKeyAccountManager receiver = new ExtendedKeyAccountManager ();
-	private final ExtendedKeyAccountManager change = new ExtendedKeyAccountManager ();
+	// transactions the parts reverted with an invalid ancestor, handed to reverted () of the composite after its lock
+	private final List<Transaction> partReverted = new ArrayList<> ();
+	private final ExtendedKeyAccountManager receiver = new Part ();
+	private final ExtendedKeyAccountManager change = new Part ();
 	private ExtendedKey master;
 
+	public ReceiverChangeAccountManager ()
+	{
+		receiver.setChangeLog (getChangeLog ());
+		change.setChangeLog (getChangeLog ());
+	}
+
 	public ExtendedKey getMaster ()
 	{
 		return master;
@@ -131,19 +141,47 @@ public class ReceiverChangeAccountManager extends BaseTransactionFactory
 		return Collections.unmodifiableSet (all);
 	}
 
+	private class Part extends ExtendedKeyAccountManager
+	{
+		// listeners and reservations are those of the composite
+		@Override
+		protected void reverted (List<Transaction> reverted)
+		{
+			synchronized ( ReceiverChangeAccountManager.this )
+			{
+				partReverted.addAll (reverted);
+			}
+		}
+	}
+
+	private List<Transaction> takePartReverted ()
+	{
+		List<Transaction> reverted = new ArrayList<> (partReverted);
+		partReverted.clear ();
+		return reverted;
+	}
+
 	@Override
 	public boolean process (Transaction t)
 	{
 		boolean notified = false;
+		List<Transaction> reverted;
+		replaceOriginal (t);
 		synchronized ( this )
 		{
 			notified = change.process (t);
 			notified |= receiver.process (t);
+			reverted = takePartReverted ();
 		}
+		releaseSettledReservations (t);
 		if ( notified )
 		{
 			notifyListener (t);
 		}
+		if ( !reverted.isEmpty () )
+		{
+			reverted (reverted);
+		}
 		return notified;
 	}
 
@@ -189,6 +227,46 @@ public class ReceiverChangeAccountManager extends BaseTransactionFactory
 		return receiver.getBalance () + change.getBalance ();
 	}
 
+	@Override
+	public synchronized long getBalance (int minConfirmations)
+	{
+		return receiver.getBalance (minConfirmations) + change.getBalance (minConfirmations);
+	}
+
+	@Override
+	public synchronized long getBalanceAt (int height)
+	{
+		return receiver.getBalanceAt (height) + change.getBalanceAt (height);
+	}
+
+	@Override
+	public synchronized AddressBalance getBalance (Address address)
+	{
+		return receiver.getBalance (address).add (change.getBalance (address));
+	}
+
+	@Override
+	public synchronized Set<TransactionOutput> getOutputs (Address address)
+	{
+		Set<TransactionOutput> outs = new HashSet<TransactionOutput> ();
+		outs.addAll (receiver.getOutputs (address));
+		outs.addAll (change.getOutputs (address));
+		return outs;
+	}
+
+	@Override
+	public int getChainHeight ()
+	{
+		return receiver.getChainHeight ();
+	}
+
+	@Override
+	public void setChainHeight (int height)
+	{
+		receiver.setChainHeight (height);
+		change.setChainHeight (height);
+	}
+
 	@Override
 	public synchronized long getConfirmed ()
 	{
@@ -213,6 +291,29 @@ public class ReceiverChangeAccountManager extends BaseTransactionFactory
 		return receiver.getChange () + change.getChange ();
 	}
 
+	@Override
+	public synchronized int getOutputCount ()
+	{
+		return receiver.getOutputCount () + change.getOutputCount ();
+	}
+
+	// the parts process the transactions, so they hold the caches
+	@Override
+	public synchronized void setSeenCacheSize (int size)
+	{
+		super.setSeenCacheSize (size);
+		receiver.setSeenCacheSize (size);
+		change.setSeenCacheSize (size);
+	}
+
+	@Override
+	protected void setMetrics (AccountMetrics metrics, String type)
+	{
+		super.setMetrics (metrics, type);
+		receiver.setMetrics (metrics, type);
+		change.setMetrics (metrics, type);
+	}
+
 	@Override
 	public synchronized Set<Transaction> getTransactions ()
 	{
@@ -223,10 +324,88 @@ public class ReceiverChangeAccountManager extends BaseTransactionFactory
 	}
 
 	@Override
-	public synchronized void syncHistory (BCSAPI api) throws BCSAPIException
+	protected synchronized List<Transaction> revert (String hash)
+	{
+		List<Transaction> reverted = new ArrayList<> ();
+		reverted.addAll (receiver.revert (hash));
+		reverted.addAll (change.revert (hash));
+		return reverted;
+	}
+
+	// the outputs are held by the parts, the pools of the composite itself stay empty
+	@Override
+	protected synchronized TransactionOutput getConfirmedOrChangeOutput (String hash, long ix)
+	{
+		TransactionOutput o = receiver.getConfirmedOrChangeOutput (hash, ix);
+		return o != null ? o : change.getConfirmedOrChangeOutput (hash, ix);
+	}
+
+	@Override
+	protected synchronized Transaction getTransaction (String hash)
+	{
+		Transaction t = receiver.getTransaction (hash);
+		if ( t == null )
+		{
+			return change.getTransaction (hash);
+		}
+		return t;
+	}
+
+	// the receiver and change parts of the account need a store each
+	public synchronized void setTransactionStores (TransactionStore receiverStore, TransactionStore changeStore)
+	{
+		receiver.setTransactionStore (receiverStore);
+		change.setTransactionStore (changeStore);
+	}
+
+	@Override
+	public void updateConfirmation (Transaction t)
+	{
+		receiver.updateConfirmation (t);
+		change.updateConfirmation (t);
+	}
+
+	@Override
+	public TransactionPage getTransactions (String cursor, int limit)
+	{
+		return TransactionPage.merge (receiver.getTransactions (cursor, limit), change.getTransactions (cursor, limit), limit);
+	}
+
+	@Override
+	public TransactionPage getTransactionsByHeight (int from, int to, String cursor, int limit)
 	{
-		receiver.syncHistory (api);
-		change.syncHistory (api);
+		return TransactionPage.merge (receiver.getTransactionsByHeight (from, to, cursor, limit),
+				change.getTransactionsByHeight (from, to, cursor, limit), limit);
+	}
+
+	@Override
+	public TransactionPage getTransactionsByTime (long from, long to, String cursor, int limit)
+	{
+		return TransactionPage.merge (receiver.getTransactionsByTime (from, to, cursor, limit),
+				change.getTransactionsByTime (from, to, cursor, limit), limit);
+	}
+
+	@Override
+	public synchronized void compactHistory (int height)
+	{
+		receiver.compactHistory (height);
+		change.compactHistory (height);
+	}
+
+	@Override
+	public void syncHistory (BCSAPI api) throws BCSAPIException
+	{
+		List<Transaction> reverted;
+		synchronized ( this )
+		{
+			receiver.syncHistory (api);
+			change.syncHistory (api);
+			reverted = takePartReverted ();
+		}
+		if ( !reverted.isEmpty () )
+		{
+			reverted (reverted);
+		}
 	}
 
 	@Override
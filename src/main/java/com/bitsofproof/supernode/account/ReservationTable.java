@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+public class ReservationTable
+{
+	// open addressed parallel arrays keyed by outpoint, so that lookups do not allocate
+	// an expiry of 0 means the reservation does not expire
+	private String[] hashes;
+	private long[] ixs;
+	private String[] owners;
+	private long[] expires;
+	private int size;
+	private long expired;
+
+	public ReservationTable ()
+	{
+		this (64);
+	}
+
+	public ReservationTable (int capacity)
+	{
+		int c = 16;
+		while ( c < capacity * 2 )
+		{
+			c <<= 1;
+		}
+		allocate (c);
+	}
+
+	private void allocate (int capacity)
+	{
+		hashes = new String[capacity];
+		ixs = new long[capacity];
+		owners = new String[capacity];
+		expires = new long[capacity];
+	}
+
+	private static int slot (String hash, long ix, int mask)
+	{
+		int h = hash.hashCode () * 31 + (int) (ix ^ (ix >>> 32));
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int find (String hash, long ix)
+	{
+		int mask = hashes.length - 1;
+		int i = slot (hash, ix, mask);
+		while ( hashes[i] != null )
+		{
+			if ( ixs[i] == ix && hashes[i].equals (hash) )
+			{
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void put (String hash, long ix, String owner, long expiry)
+	{
+		int mask = hashes.length - 1;
+		int i = slot (hash, ix, mask);
+		while ( hashes[i] != null )
+		{
+			i = (i + 1) & mask;
+		}
+		hashes[i] = hash;
+		ixs[i] = ix;
+		owners[i] = owner;
+		expires[i] = expiry;
+		++size;
+	}
+
+	private void delete (int i)
+	{
+		int mask = hashes.length - 1;
+		int j = i;
+		hashes[i] = null;
+		owners[i] = null;
+		--size;
+		// shift back entries of the probe sequence so that lookups do not stop at the gap
+		while ( true )
+		{
+			j = (j + 1) & mask;
+			if ( hashes[j] == null )
+			{
+				return;
+			}
+			int k = slot (hashes[j], ixs[j], mask);
+			if ( (j > i && (k <= i || k > j)) || (j < i && (k <= i && k > j)) )
+			{
+				hashes[i] = hashes[j];
+				ixs[i] = ixs[j];
+				owners[i] = owners[j];
+				expires[i] = expires[j];
+				hashes[j] = null;
+				owners[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	private void resize (int capacity)
+	{
+		String[] oh = hashes;
+		long[] oi = ixs;
+		String[] oo = owners;
+		long[] oe = expires;
+		allocate (capacity);
+		size = 0;
+		for ( int i = 0; i < oh.length; ++i )
+		{
+			if ( oh[i] != null )
+			{
+				put (oh[i], oi[i], oo[i], oe[i]);
+			}
+		}
+	}
+
+	private boolean isExpired (int i, long now)
+	{
+		return expires[i] != 0 && expires[i] <= now;
+	}
+
+	public synchronized void reserve (String hash, long ix, String owner, long expiry)
+	{
+		int i = find (hash, ix);
+		if ( i >= 0 )
+		{
+			owners[i] = owner;
+			expires[i] = expiry;
+			return;
+		}
+		if ( (size + 1) * 2 > hashes.length )
+		{
+			purge (System.currentTimeMillis ());
+			if ( (size + 1) * 2 > hashes.length )
+			{
+				resize (hashes.length * 2);
+			}
+		}
+		put (hash, ix, owner, expiry);
+	}
+
+	public synchronized boolean isReserved (String hash, long ix)
+	{
+		int i = find (hash, ix);
+		if ( i < 0 )
+		{
+			return false;
+		}
+		if ( isExpired (i, System.currentTimeMillis ()) )
+		{
+			delete (i);
+			++expired;
+			return false;
+		}
+		return true;
+	}
+
+	public synchronized String getOwner (String hash, long ix)
+	{
+		int i = find (hash, ix);
+		return i < 0 ? null : owners[i];
+	}
+
+	public synchronized boolean release (String hash, long ix)
+	{
+		int i = find (hash, ix);
+		if ( i >= 0 )
+		{
+			delete (i);
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized boolean release (String hash, long ix, String owner)
+	{
+		int i = find (hash, ix);
+		if ( i >= 0 && owner.equals (owners[i]) )
+		{
+			delete (i);
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized int releaseOwner (String owner)
+	{
+		int n = 0;
+		int i = 0;
+		while ( i < hashes.length )
+		{
+			// delete may shift a later entry into this slot, so look at it again
+			if ( hashes[i] != null && owner.equals (owners[i]) )
+			{
+				delete (i);
+				++n;
+			}
+			else
+			{
+				++i;
+			}
+		}
+		return n;
+	}
+
+	private int purge (long now)
+	{
+		int n = 0;
+		int i = 0;
+		while ( i < hashes.length )
+		{
+			if ( hashes[i] != null && isExpired (i, now) )
+			{
+				delete (i);
+				++n;
+			}
+			else
+			{
+				++i;
+			}
+		}
+		expired += n;
+		return n;
+	}
+
+	public synchronized int purge ()
+	{
+		return purge (System.currentTimeMillis ());
+	}
+
+	public synchronized int getActive ()
+	{
+		purge (System.currentTimeMillis ());
+		return size;
+	}
+
+	public synchronized long getExpired ()
+	{
+		return expired;
+	}
+}
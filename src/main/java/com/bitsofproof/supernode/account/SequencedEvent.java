@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+public class SequencedEvent<T>
+{
+	private final long sequence;
+	private final T event;
+
+	public SequencedEvent (long sequence, T event)
+	{
+		this.sequence = sequence;
+		this.event = event;
+	}
+
+	public long getSequence ()
+	{
+		return sequence;
+	}
+
+	public T getEvent ()
+	{
+		return event;
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "SequencedEvent [sequence=" + sequence + ", event=" + event + "]";
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// publishes events numbered from 1, keeps the most recent ones so that subscribers may resume after a cursor
+public class SequencedEventPublisher<T> implements EventPublisher<SequencedEvent<T>>
+{
+	private static final Logger log = LoggerFactory.getLogger (SequencedEventPublisher.class);
+
+	private final SequencedEvent<T>[] replay;
+	private final int bufferLimit;
+	private long sequence;
+
+	private final Set<EventSubscription> subscriptions = new CopyOnWriteArraySet<> ();
+
+	@SuppressWarnings ("unchecked")
+	public SequencedEventPublisher (int replayCapacity, int bufferLimit)
+	{
+		this.replay = new SequencedEvent[replayCapacity];
+		this.bufferLimit = bufferLimit;
+	}
+
+	public synchronized long getSequence ()
+	{
+		return sequence;
+	}
+
+	public void publish (T event)
+	{
+		synchronized ( this )
+		{
+			SequencedEvent<T> e = new SequencedEvent<> (++sequence, event);
+			replay[(int) (e.getSequence () % replay.length)] = e;
+			for ( EventSubscription s : subscriptions )
+			{
+				s.offer (e);
+			}
+		}
+		for ( EventSubscription s : subscriptions )
+		{
+			s.drain ();
+		}
+	}
+
+	@Override
+	public void subscribe (Subscriber<? super SequencedEvent<T>> subscriber)
+	{
+		EventSubscription s = new EventSubscription (subscriber);
+		synchronized ( this )
+		{
+			subscriptions.add (s);
+		}
+		subscriber.onSubscribe (s);
+	}
+
+	// deliver all events after the cursor first, fails if they are no longer kept
+	public void subscribe (Subscriber<? super SequencedEvent<T>> subscriber, long cursor)
+	{
+		EventSubscription s = new EventSubscription (subscriber);
+		synchronized ( this )
+		{
+			if ( sequence - cursor > replay.length || cursor > sequence )
+			{
+				s.fail (new IllegalStateException ("Cursor " + cursor + " is not available, current sequence is " + sequence));
+			}
+			else
+			{
+				for ( long i = cursor + 1; i <= sequence; ++i )
+				{
+					s.queue.add (replay[(int) (i % replay.length)]);
+				}
+				subscriptions.add (s);
+			}
+		}
+		subscriber.onSubscribe (s);
+		s.drain ();
+	}
+
+	private class EventSubscription implements Subscription
+	{
+		private final Subscriber<? super SequencedEvent<T>> subscriber;
+		private final ArrayDeque<SequencedEvent<T>> queue = new ArrayDeque<> ();
+		private final AtomicInteger wip = new AtomicInteger ();
+		private long demand;
+		private boolean cancelled;
+		private Throwable error;
+
+		public EventSubscription (Subscriber<? super SequencedEvent<T>> subscriber)
+		{
+			this.subscriber = subscriber;
+		}
+
+		private synchronized void offer (SequencedEvent<T> e)
+		{
+			if ( cancelled || error != null )
+			{
+				return;
+			}
+			if ( queue.size () >= bufferLimit )
+			{
+				fail (new IllegalStateException ("Subscriber fell behind by more than " + bufferLimit + " events"));
+				return;
+			}
+			queue.add (e);
+		}
+
+		private synchronized void fail (Throwable t)
+		{
+			error = t;
+			queue.clear ();
+		}
+
+		@Override
+		public void request (long n)
+		{
+			synchronized ( this )
+			{
+				if ( n <= 0 )
+				{
+					fail (new IllegalArgumentException ("Request must be positive"));
+				}
+				else
+				{
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+			}
+			drain ();
+		}
+
+		@Override
+		public void cancel ()
+		{
+			synchronized ( this )
+			{
+				cancelled = true;
+				queue.clear ();
+			}
+			subscriptions.remove (this);
+		}
+
+		private void drain ()
+		{
+			if ( wip.getAndIncrement () != 0 )
+			{
+				return;
+			}
+			int missed = 1;
+			do
+			{
+				while ( true )
+				{
+					SequencedEvent<T> e;
+					Throwable failure = null;
+					synchronized ( this )
+					{
+						if ( cancelled )
+						{
+							return;
+						}
+						if ( error != null )
+						{
+							cancelled = true;
+							failure = error;
+							e = null;
+						}
+						else
+						{
+							if ( demand == 0 || queue.isEmpty () )
+							{
+								break;
+							}
+							e = queue.poll ();
+							if ( demand != Long.MAX_VALUE )
+							{
+								--demand;
+							}
+						}
+					}
+					if ( failure != null )
+					{
+						subscriptions.remove (this);
+						subscriber.onError (failure);
+						return;
+					}
+					try
+					{
+						subscriber.onNext (e);
+					}
+					catch ( Exception ex )
+					{
+						log.error ("Uncaught exception in subscriber", ex);
+						cancel ();
+						return;
+					}
+				}
+				missed = wip.addAndGet (-missed);
+			} while ( missed != 0 );
+		}
+	}
+}
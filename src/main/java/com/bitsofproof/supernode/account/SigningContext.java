@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.Key;
+import com.bitsofproof.supernode.common.ScriptFormat;
+import com.bitsofproof.supernode.common.ValidationException;
+import com.bitsofproof.supernode.common.WireFormat;
+
+// state shared by the signatures of all inputs of a transaction
+public class SigningContext
+{
+	// outpoint, empty script and sequence
+	private static final int EMPTY_INPUT_SIZE = 32 + 4 + 1 + 4;
+
+	private final TransactionFactory account;
+	private final byte[] body;
+	private final int firstScript;
+	private final Map<Address, Key> keys = new ConcurrentHashMap<> ();
+
+	public SigningContext (Transaction transaction, TransactionFactory account)
+	{
+		this.account = account;
+
+		// serialize once with all input scripts empty, signature hashes only differ in the script of the signed input
+		byte[][] scripts = new byte[transaction.getInputs ().size ()][];
+		int j = 0;
+		for ( TransactionInput i : transaction.getInputs () )
+		{
+			scripts[j++] = i.getScript ();
+			i.setScript (new byte[0]);
+		}
+		WireFormat.Writer writer = new WireFormat.Writer ();
+		transaction.toWire (writer);
+		body = writer.toByteArray ();
+		j = 0;
+		for ( TransactionInput i : transaction.getInputs () )
+		{
+			i.setScript (scripts[j++]);
+		}
+		firstScript = 4 + BaseTransactionFactory.varIntSize (scripts.length) + 32 + 4;
+	}
+
+	public TransactionFactory getAccount ()
+	{
+		return account;
+	}
+
+	// signature hash of SIGHASH_ALL for the input, with the script of the spent output
+	public byte[] hashTransaction (int ix, byte[] script)
+	{
+		int offset = firstScript + ix * EMPTY_INPUT_SIZE;
+		int vl = BaseTransactionFactory.varIntSize (script.length);
+		byte[] data = new byte[body.length - 1 + vl + script.length + 4];
+		System.arraycopy (body, 0, data, 0, offset);
+		int p = writeVarInt (data, offset, script.length);
+		System.arraycopy (script, 0, data, p, script.length);
+		p += script.length;
+		System.arraycopy (body, offset + 1, data, p, body.length - offset - 1);
+		p += body.length - offset - 1;
+		int hashType = ScriptFormat.SIGHASH_ALL;
+		data[p] = (byte) (hashType & 0xff);
+		data[p + 1] = (byte) ((hashType >>> 8) & 0xff);
+		data[p + 2] = (byte) ((hashType >>> 16) & 0xff);
+		data[p + 3] = (byte) ((hashType >>> 24) & 0xff);
+		return Hash.hash (data);
+	}
+
+	private static int writeVarInt (byte[] data, int p, long n)
+	{
+		if ( n < 0xfd )
+		{
+			data[p++] = (byte) n;
+		}
+		else if ( n <= 0xffff )
+		{
+			data[p++] = (byte) 0xfd;
+			data[p++] = (byte) (n & 0xff);
+			data[p++] = (byte) ((n >>> 8) & 0xff);
+		}
+		else
+		{
+			data[p++] = (byte) 0xfe;
+			data[p++] = (byte) (n & 0xff);
+			data[p++] = (byte) ((n >>> 8) & 0xff);
+			data[p++] = (byte) ((n >>> 16) & 0xff);
+			data[p++] = (byte) ((n >>> 24) & 0xff);
+		}
+		return p;
+	}
+
+	public Key getKey (Address address) throws ValidationException
+	{
+		Key key = keys.get (address);
+		if ( key == null )
+		{
+			synchronized ( this )
+			{
+				key = keys.get (address);
+				if ( key == null )
+				{
+					key = account.getKeyForAddress (address);
+					if ( key == null )
+					{
+						throw new ValidationException ("Have no key to spend this output");
+					}
+					keys.put (address, key);
+				}
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.WireFormat;
+
+// Keeps transactions in memory up to a budget of serialized bytes, compaction moves the candidates it is offered to an
+// append-only file and reads them back on demand. The file is scratch space of a running account, it is truncated
+// when the store is created since the account rebuilds its history with sync. Records of transactions that were
+// removed or came back to memory are reclaimed once they are half of the file.
+public class TieredTransactionStore implements AccountManager.TransactionStore
+{
+	private static final Logger log = LoggerFactory.getLogger (TieredTransactionStore.class);
+
+	private final Map<String, Transaction> resident = new HashMap<> ();
+	private final Map<String, Long> evicted = new HashMap<> ();
+	private final RandomAccessFile file;
+	private final long memoryBudget;
+	private long residentSize;
+	private long garbage;
+
+	public TieredTransactionStore (File file, long memoryBudget) throws IOException
+	{
+		this.file = new RandomAccessFile (file, "rw");
+		this.file.setLength (0);
+		this.memoryBudget = memoryBudget;
+	}
+
+	public long getMemoryBudget ()
+	{
+		return memoryBudget;
+	}
+
+	public synchronized long getResidentSize ()
+	{
+		return residentSize;
+	}
+
+	public synchronized int getEvictedCount ()
+	{
+		return evicted.size ();
+	}
+
+	// bytes of the file no longer referenced since their transaction was removed or came back to memory
+	public synchronized long getGarbage ()
+	{
+		return garbage;
+	}
+
+	@Override
+	public synchronized void put (Transaction t)
+	{
+		Long offset = evicted.remove (t.getHash ());
+		if ( offset != null )
+		{
+			addGarbage (recordLength (offset));
+		}
+		Transaction old = resident.put (t.getHash (), t);
+		if ( old != null )
+		{
+			residentSize -= BaseTransactionFactory.estimateSize (old);
+		}
+		residentSize += BaseTransactionFactory.estimateSize (t);
+	}
+
+	@Override
+	public synchronized Transaction get (String hash)
+	{
+		Transaction t = resident.get (hash);
+		if ( t == null )
+		{
+			Long offset = evicted.get (hash);
+			if ( offset != null )
+			{
+				return read (offset);
+			}
+		}
+		return t;
+	}
+
+	@Override
+	public synchronized Transaction remove (String hash)
+	{
+		Transaction t = resident.remove (hash);
+		if ( t != null )
+		{
+			residentSize -= BaseTransactionFactory.estimateSize (t);
+			return t;
+		}
+		Long offset = evicted.remove (hash);
+		if ( offset != null )
+		{
+			Transaction e = read (offset);
+			addGarbage (recordLength (offset));
+			return e;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized boolean contains (String hash)
+	{
+		return resident.containsKey (hash) || evicted.containsKey (hash);
+	}
+
+	@Override
+	public synchronized boolean isResident (String hash)
+	{
+		return resident.containsKey (hash);
+	}
+
+	@Override
+	public synchronized Collection<Transaction> getResident ()
+	{
+		return Collections.unmodifiableCollection (resident.values ());
+	}
+
+	@Override
+	public synchronized Collection<Transaction> getTransactions ()
+	{
+		List<Transaction> all = new ArrayList<> (resident.values ());
+		// in file order
+		for ( Long offset : new TreeMap<Long, String> (invert (evicted)).keySet () )
+		{
+			all.add (read (offset));
+		}
+		return all;
+	}
+
+	@Override
+	public synchronized boolean isOverBudget ()
+	{
+		return residentSize > memoryBudget;
+	}
+
+	@Override
+	public synchronized void compact (List<Transaction> candidates)
+	{
+		int n = 0;
+		for ( Transaction t : candidates )
+		{
+			if ( residentSize <= memoryBudget )
+			{
+				break;
+			}
+			if ( resident.remove (t.getHash ()) != null )
+			{
+				evicted.put (t.getHash (), write (t));
+				residentSize -= BaseTransactionFactory.estimateSize (t);
+				++n;
+			}
+		}
+		log.trace ("Evicted {} transactions", n);
+	}
+
+	public synchronized void close () throws IOException
+	{
+		file.close ();
+	}
+
+	private static Map<Long, String> invert (Map<String, Long> map)
+	{
+		Map<Long, String> inverse = new HashMap<> ();
+		for ( Map.Entry<String, Long> e : map.entrySet () )
+		{
+			inverse.put (e.getValue (), e.getKey ());
+		}
+		return inverse;
+	}
+
+	// record: length, block hash, height, block time, wire format
+	private long write (Transaction t)
+	{
+		try
+		{
+			WireFormat.Writer writer = new WireFormat.Writer ();
+			t.toWire (writer);
+			byte[] wire = writer.toByteArray ();
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream (wire.length + 100);
+			DataOutputStream out = new DataOutputStream (bytes);
+			out.writeUTF (t.getBlockHash () == null ? "" : t.getBlockHash ());
+			out.writeInt (t.getHeight ());
+			out.writeLong (t.getBlocktime ());
+			out.write (wire);
+			out.flush ();
+
+			long offset = file.length ();
+			file.seek (offset);
+			file.writeInt (bytes.size ());
+			file.write (bytes.toByteArray ());
+			return offset;
+		}
+		catch ( IOException e )
+		{
+			throw new IllegalStateException ("Can not write transaction store", e);
+		}
+	}
+
+	private Transaction read (long offset)
+	{
+		try
+		{
+			file.seek (offset);
+			byte[] record = new byte[file.readInt ()];
+			file.readFully (record);
+			DataInputStream in = new DataInputStream (new ByteArrayInputStream (record));
+			String blockHash = in.readUTF ();
+			int height = in.readInt ();
+			long blocktime = in.readLong ();
+			byte[] wire = new byte[in.available ()];
+			in.readFully (wire);
+
+			Transaction t = Transaction.fromWire (new WireFormat.Reader (wire));
+			t.computeHash ();
+			t.setBlockHash (blockHash.isEmpty () ? null : blockHash);
+			t.setHeight (height);
+			t.setBlocktime (blocktime);
+			return t;
+		}
+		catch ( IOException e )
+		{
+			throw new IllegalStateException ("Can not read transaction store", e);
+		}
+	}
+
+	private void addGarbage (long length)
+	{
+		garbage += length;
+		try
+		{
+			if ( garbage > file.length () / 2 )
+			{
+				reclaim ();
+			}
+		}
+		catch ( IOException e )
+		{
+			throw new IllegalStateException ("Can not compact transaction store", e);
+		}
+	}
+
+	// live records move to the front in file order, so none is overwritten before it is read
+	private void reclaim () throws IOException
+	{
+		long position = 0;
+		for ( Map.Entry<Long, String> e : new TreeMap<Long, String> (invert (evicted)).entrySet () )
+		{
+			file.seek (e.getKey ());
+			byte[] record = new byte[file.readInt ()];
+			file.readFully (record);
+			file.seek (position);
+			file.writeInt (record.length);
+			file.write (record);
+			evicted.put (e.getValue (), position);
+			position += 4 + record.length;
+		}
+		file.setLength (position);
+		log.trace ("Reclaimed {} bytes of transaction store", garbage);
+		garbage = 0;
+	}
+
+	private long recordLength (long offset)
+	{
+		try
+		{
+			file.seek (offset);
+			return 4 + file.readInt ();
+		}
+		catch ( IOException e )
+		{
+			throw new IllegalStateException ("Can not read transaction store", e);
+		}
+	}
+}
@@ -15,6 +15,8 @@ public interface TransactionFactory extends AccountManager
 
 	public void reserveInputs (Transaction t);
 
+	public void reserveInputs (Transaction t, long timeout);
+
 	public boolean isReserved (String hash, long ix);
 
 	public void releaseInputs (Transaction t);
@@ -28,4 +30,8 @@ public interface TransactionFactory extends AccountManager
 	public Transaction pay (List<Address> receiver, List<Long> amounts) throws ValidationException;
 
 	public Transaction pay (List<Address> receiver, List<Long> amounts, PaymentOptions options) throws ValidationException;
+
+	public Transaction bumpFee (Transaction pending, long fee) throws ValidationException;
+
+	public Transaction payForParent (Transaction parent, long fee) throws ValidationException;
 }
\ No newline at end of file
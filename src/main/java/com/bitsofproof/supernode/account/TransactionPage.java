@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bitsofproof.supernode.api.Transaction;
+
+// newest first, the next cursor is null after the last page
+public class TransactionPage
+{
+	private final List<Transaction> transactions;
+	private final List<HistoryIndex.Key> keys;
+	private final String nextCursor;
+
+	TransactionPage (List<Transaction> transactions, List<HistoryIndex.Key> keys, String nextCursor)
+	{
+		this.transactions = transactions;
+		this.keys = keys;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<Transaction> getTransactions ()
+	{
+		return Collections.unmodifiableList (transactions);
+	}
+
+	public String getNextCursor ()
+	{
+		return nextCursor;
+	}
+
+	List<HistoryIndex.Key> getKeys ()
+	{
+		return keys;
+	}
+
+	// page of a plain collection of transactions, for accounts that keep no history index
+	static TransactionPage scan (Collection<Transaction> transactions, boolean byTime, long from, long to, String cursor, int limit)
+	{
+		HistoryIndex index = new HistoryIndex ();
+		Map<String, Transaction> byHash = new HashMap<> ();
+		for ( Transaction t : transactions )
+		{
+			index.add (t);
+			byHash.put (t.getHash (), t);
+		}
+		List<HistoryIndex.Key> keys = byTime ? index.pageByTime (from, to, cursor, limit) : index.pageByHeight (from, to, cursor, limit);
+		List<Transaction> page = new ArrayList<> (keys.size ());
+		for ( HistoryIndex.Key k : keys )
+		{
+			page.add (byHash.get (k.hash));
+		}
+		return new TransactionPage (page, keys, keys.size () == limit ? keys.get (keys.size () - 1).toString () : null);
+	}
+
+	// merge pages of the parts of an account that were queried with the same cursor and limit
+	static TransactionPage merge (TransactionPage a, TransactionPage b, int limit)
+	{
+		List<Transaction> transactions = new ArrayList<> ();
+		List<HistoryIndex.Key> keys = new ArrayList<> ();
+		int i = 0, j = 0;
+		while ( keys.size () < limit && (i < a.keys.size () || j < b.keys.size ()) )
+		{
+			int c;
+			if ( i == a.keys.size () )
+			{
+				c = 1;
+			}
+			else if ( j == b.keys.size () )
+			{
+				c = -1;
+			}
+			else
+			{
+				c = b.keys.get (j).compareTo (a.keys.get (i));
+			}
+			if ( c <= 0 )
+			{
+				keys.add (a.keys.get (i));
+				transactions.add (a.transactions.get (i++));
+				if ( c == 0 )
+				{
+					++j;
+				}
+			}
+			else
+			{
+				keys.add (b.keys.get (j));
+				transactions.add (b.transactions.get (j++));
+			}
+		}
+		String next = null;
+		if ( keys.size () == limit && (i < a.keys.size () || j < b.keys.size () || a.nextCursor != null || b.nextCursor != null) )
+		{
+			next = keys.get (keys.size () - 1).toString ();
+		}
+		return new TransactionPage (transactions, keys, next);
+	}
+}
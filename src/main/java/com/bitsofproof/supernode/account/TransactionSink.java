@@ -13,11 +13,29 @@ public class TransactionSink
 		this.value = value;
 	}
 
+	// same script with a different value, the script array is immutable and shared
+	TransactionSink (TransactionSink sink, long value)
+	{
+		this.script = sink.script;
+		this.value = value;
+	}
+
 	public byte[] getScript ()
 	{
 		return Arrays.clone (script);
 	}
 
+	// the script without a copy, for outputs of transactions built by the factory that do not modify it
+	byte[] getSharedScript ()
+	{
+		return script;
+	}
+
+	public int getScriptLength ()
+	{
+		return script.length;
+	}
+
 	public long getValue ()
 	{
 		return value;
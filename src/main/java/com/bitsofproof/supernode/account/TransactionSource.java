@@ -1,5 +1,8 @@
 package com.bitsofproof.supernode.account;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.bitsofproof.supernode.api.Address;
 import com.bitsofproof.supernode.api.Transaction;
 import com.bitsofproof.supernode.api.TransactionOutput;
@@ -9,8 +12,21 @@ import com.bitsofproof.supernode.common.ValidationException;
 
 public class TransactionSource
 {
+	// DER encoded signature of at most 72 bytes and the hash type
+	private static final int MAXIMUM_SIGNATURE_LENGTH = 73;
+
+	// assumed for outputs of other types than pay to address, that subclasses spend without telling their script
+	// length: a P2PKH script with an uncompressed key and room for one more signature, so fees rather overpay
+	protected static final int UNKNOWN_SCRIPT_LENGTH = 2 * (1 + MAXIMUM_SIGNATURE_LENGTH) + 1 + 65;
+
+	// classes that override spend (int, Transaction)
+	private static final Map<Class<?>, Boolean> legacySpend = new ConcurrentHashMap<> ();
+
 	private final TransactionOutput source;
 	private final TransactionFactory account;
+	private Boolean payToAddress;
+	private Address address;
+	private Key key;
 
 	public TransactionSource (TransactionOutput source, TransactionFactory account)
 	{
@@ -28,18 +44,96 @@ public class TransactionSource
 		return account;
 	}
 
-	protected byte[] spend (int ix, Transaction transaction) throws ValidationException
+	protected synchronized boolean isPayToAddress ()
 	{
-		if ( ScriptFormat.isPayToAddress (getSource ().getScript ()) )
+		if ( payToAddress == null )
 		{
-			ScriptFormat.Writer sw = new ScriptFormat.Writer ();
-			Address address = getSource ().getOutputAddress ();
-			Key key = getAccount ().getKeyForAddress (address);
+			payToAddress = ScriptFormat.isPayToAddress (getSource ().getScript ());
+		}
+		return payToAddress;
+	}
+
+	protected synchronized Address getAddress ()
+	{
+		if ( address == null )
+		{
+			address = getSource ().getOutputAddress ();
+		}
+		return address;
+	}
+
+	protected synchronized Key getKey () throws ValidationException
+	{
+		if ( key == null )
+		{
+			key = getAccount ().getKeyForAddress (getAddress ());
 			if ( key == null )
 			{
 				throw new ValidationException ("Have no key to spend this output");
 			}
-			byte[] sig = key.sign (transaction.hashTransaction (ix, ScriptFormat.SIGHASH_ALL, getSource ().getScript ()));
+		}
+		return key;
+	}
+
+	// resolve everything that needs the account before signing may continue on other threads
+	protected synchronized void prepareSpend (SigningContext context) throws ValidationException
+	{
+		if ( isPayToAddress () && key == null )
+		{
+			key = context.getKey (getAddress ());
+		}
+	}
+
+	// used to size the fee before signing, subclasses spending other output types should override
+	public int getMaximumScriptLength () throws ValidationException
+	{
+		if ( isPayToAddress () )
+		{
+			return 1 + MAXIMUM_SIGNATURE_LENGTH + 1 + getKey ().getPublic ().length;
+		}
+		return UNKNOWN_SCRIPT_LENGTH;
+	}
+
+	// sources that override spend (int, Transaction) are signed through it, one input after the other
+	boolean isLegacySpend ()
+	{
+		Boolean legacy = legacySpend.get (getClass ());
+		if ( legacy == null )
+		{
+			legacy = false;
+			for ( Class<?> c = getClass (); c != TransactionSource.class && !legacy; c = c.getSuperclass () )
+			{
+				try
+				{
+					c.getDeclaredMethod ("spend", int.class, Transaction.class);
+					legacy = true;
+				}
+				catch ( NoSuchMethodException e )
+				{
+				}
+			}
+			legacySpend.put (getClass (), legacy);
+		}
+		return legacy;
+	}
+
+	// the factory still calls overrides of this, but signs with a shared context and in parallel only through
+	// spend (int, SigningContext), which new sources should override instead
+	@Deprecated
+	protected byte[] spend (int ix, Transaction transaction) throws ValidationException
+	{
+		SigningContext context = new SigningContext (transaction, getAccount ());
+		prepareSpend (context);
+		return spend (ix, context);
+	}
+
+	protected byte[] spend (int ix, SigningContext context) throws ValidationException
+	{
+		if ( isPayToAddress () )
+		{
+			ScriptFormat.Writer sw = new ScriptFormat.Writer ();
+			Key key = getKey ();
+			byte[] sig = key.sign (context.hashTransaction (ix, getSource ().getScript ()));
 			byte[] sigPlusType = new byte[sig.length + 1];
 			System.arraycopy (sig, 0, sigPlusType, 0, sig.length);
 			sigPlusType[sigPlusType.length - 1] = (byte) (ScriptFormat.SIGHASH_ALL & 0xff);
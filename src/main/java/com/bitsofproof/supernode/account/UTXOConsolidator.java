@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.account.PaymentOptions.Priority;
+import com.bitsofproof.supernode.api.BCSAPI;
+import com.bitsofproof.supernode.api.BCSAPIException;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class UTXOConsolidator implements ConfirmationListener
+{
+	private static final Logger log = LoggerFactory.getLogger (UTXOConsolidator.class);
+
+	private final BaseTransactionFactory account;
+	private final BCSAPI api;
+	private final Executor executor;
+
+	private long maxValue = 100000;
+	private int minInputs = 50;
+	private int maxInputs = 200;
+	private int interval = 6;
+	private Priority priority = Priority.NORMAL;
+
+	private int lastRun;
+	private boolean running;
+
+	// consolidation builds, signs and sends a transaction, that must not run in the confirmation manager's lock
+	public UTXOConsolidator (BaseTransactionFactory account, BCSAPI api, ConfirmationManager confirmationManager, Executor executor)
+	{
+		if ( executor == null )
+		{
+			throw new IllegalArgumentException ("Consolidation needs an executor");
+		}
+		this.account = account;
+		this.api = api;
+		this.executor = executor;
+		confirmationManager.addConfirmationListener (this);
+	}
+
+	public long getMaxValue ()
+	{
+		return maxValue;
+	}
+
+	public void setMaxValue (long maxValue)
+	{
+		this.maxValue = maxValue;
+	}
+
+	public int getMinInputs ()
+	{
+		return minInputs;
+	}
+
+	public void setMinInputs (int minInputs)
+	{
+		this.minInputs = minInputs;
+	}
+
+	public int getMaxInputs ()
+	{
+		return maxInputs;
+	}
+
+	public void setMaxInputs (int maxInputs)
+	{
+		this.maxInputs = maxInputs;
+	}
+
+	public int getInterval ()
+	{
+		return interval;
+	}
+
+	public void setInterval (int interval)
+	{
+		this.interval = interval;
+	}
+
+	public Priority getPriority ()
+	{
+		return priority;
+	}
+
+	public void setPriority (Priority priority)
+	{
+		this.priority = priority;
+	}
+
+	@Override
+	public void confirmed (Transaction t)
+	{
+	}
+
+	@Override
+	public void newHeight (int height)
+	{
+		synchronized ( this )
+		{
+			if ( running || (height - lastRun) < interval )
+			{
+				return;
+			}
+			lastRun = height;
+			running = true;
+		}
+		Runnable task = new Runnable ()
+		{
+			@Override
+			public void run ()
+			{
+				try
+				{
+					consolidate ();
+				}
+				finally
+				{
+					synchronized ( UTXOConsolidator.this )
+					{
+						running = false;
+					}
+				}
+			}
+		};
+		try
+		{
+			executor.execute (task);
+		}
+		catch ( RuntimeException e )
+		{
+			log.error ("Can not schedule consolidation", e);
+			synchronized ( this )
+			{
+				running = false;
+			}
+		}
+	}
+
+	public Transaction consolidate ()
+	{
+		Transaction t;
+		try
+		{
+			t = account.consolidate (maxValue, minInputs, maxInputs, priority);
+		}
+		catch ( ValidationException e )
+		{
+			log.error ("Can not consolidate outputs", e);
+			return null;
+		}
+		if ( t == null )
+		{
+			return null;
+		}
+		try
+		{
+			api.sendTransaction (t);
+			log.trace ("Sent consolidation " + t.getHash () + " of " + t.getInputs ().size () + " outputs");
+			return t;
+		}
+		catch ( BCSAPIException e )
+		{
+			log.error ("Can not send consolidation " + t.getHash (), e);
+			account.releaseInputs (t);
+			return null;
+		}
+	}
+}
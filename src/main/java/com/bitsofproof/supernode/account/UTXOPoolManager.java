@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+
+public class UTXOPoolManager implements AccountListener
+{
+	private static final Logger log = LoggerFactory.getLogger (UTXOPoolManager.class);
+
+	// a number of ready outputs of about a value; an output counts for the largest target it has at least half the value of
+	public static class Target
+	{
+		private final long value;
+		private final int count;
+
+		public Target (long value, int count)
+		{
+			this.value = value;
+			this.count = count;
+		}
+
+		public long getValue ()
+		{
+			return value;
+		}
+
+		public int getCount ()
+		{
+			return count;
+		}
+	}
+
+	private final BaseTransactionFactory account;
+	private final List<Target> targets;
+	private int maxSplit = 10;
+
+	// unspent confirmed and change outputs large enough to count for a target, by outpoint
+	private final Map<String, TransactionOutput> tracked = new HashMap<> ();
+	private int[] ready;
+	private long readyValue;
+	private volatile boolean dirty = true;
+
+	public UTXOPoolManager (BaseTransactionFactory account, int targetOutputs, long targetValue)
+	{
+		this (account, Collections.singletonList (new Target (targetValue, targetOutputs)));
+	}
+
+	public UTXOPoolManager (BaseTransactionFactory account, List<Target> targets)
+	{
+		this.account = account;
+		this.targets = new ArrayList<> (targets);
+		Collections.sort (this.targets, new Comparator<Target> ()
+		{
+			@Override
+			public int compare (Target t1, Target t2)
+			{
+				return Long.compare (t1.value, t2.value);
+			}
+		});
+		ready = new int[this.targets.size ()];
+		refresh ();
+		account.addAccountListener (this);
+		account.setUTXOPoolManager (this);
+	}
+
+	public List<Target> getTargets ()
+	{
+		return Collections.unmodifiableList (targets);
+	}
+
+	public synchronized int getMaxSplit ()
+	{
+		return maxSplit;
+	}
+
+	public synchronized void setMaxSplit (int maxSplit)
+	{
+		this.maxSplit = maxSplit;
+	}
+
+	public synchronized int getReady ()
+	{
+		recount ();
+		int n = 0;
+		for ( int r : ready )
+		{
+			n += r;
+		}
+		return n;
+	}
+
+	// ready outputs counting for the target
+	public synchronized int getReady (Target target)
+	{
+		recount ();
+		int i = targets.indexOf (target);
+		return i < 0 ? 0 : ready[i];
+	}
+
+	public synchronized long getReadyValue ()
+	{
+		recount ();
+		return readyValue;
+	}
+
+	// only the outpoints the transaction spends or creates can change
+	@Override
+	public synchronized void accountChanged (AccountManager account, Transaction t)
+	{
+		for ( TransactionInput in : t.getInputs () )
+		{
+			track (in.getSourceHash (), in.getIx ());
+		}
+		for ( TransactionOutput o : t.getOutputs () )
+		{
+			track (t.getHash (), o.getIx ());
+		}
+		dirty = true;
+	}
+
+	// reservations decide which tracked outputs are ready; may be called with the reservation table locked, so it only marks the counts stale
+	public void reservationsChanged ()
+	{
+		dirty = true;
+	}
+
+	// read all confirmed and change outputs again, needed after a sync of the account that does not notify listeners
+	public synchronized void refresh ()
+	{
+		tracked.clear ();
+		for ( TransactionOutput o : account.getConfirmedOutputs () )
+		{
+			track (o);
+		}
+		for ( TransactionOutput o : account.getChangeOutputs () )
+		{
+			track (o);
+		}
+		dirty = true;
+	}
+
+	private void track (String hash, long ix)
+	{
+		TransactionOutput o = account.getConfirmedOrChangeOutput (hash, ix);
+		if ( o != null )
+		{
+			track (o);
+		}
+		else
+		{
+			tracked.remove (hash + ":" + ix);
+		}
+	}
+
+	private void track (TransactionOutput o)
+	{
+		if ( getTarget (o.getValue ()) >= 0 )
+		{
+			tracked.put (o.getTxHash () + ":" + o.getIx (), o);
+		}
+	}
+
+	private int getTarget (long value)
+	{
+		for ( int i = targets.size () - 1; i >= 0; --i )
+		{
+			if ( value >= targets.get (i).value / 2 )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void recount ()
+	{
+		if ( !dirty )
+		{
+			return;
+		}
+		ready = new int[targets.size ()];
+		readyValue = 0;
+		for ( TransactionOutput o : tracked.values () )
+		{
+			if ( !account.isReserved (o.getTxHash (), o.getIx ()) )
+			{
+				++ready[getTarget (o.getValue ())];
+				readyValue += o.getValue ();
+			}
+		}
+		dirty = false;
+	}
+
+	// replenish missing ready outputs, largest targets first, the last output takes the remainder
+	public synchronized long[] splitChange (long change)
+	{
+		recount ();
+		List<Long> split = new ArrayList<> ();
+		long remainder = change;
+		for ( int i = targets.size () - 1; i >= 0; --i )
+		{
+			Target target = targets.get (i);
+			for ( int missing = target.count - ready[i]; missing > 0 && split.size () < maxSplit - 1
+					&& remainder - target.value > BaseTransactionFactory.DUST_LIMIT; --missing )
+			{
+				split.add (target.value);
+				remainder -= target.value;
+			}
+		}
+		if ( split.isEmpty () )
+		{
+			return new long[] { change };
+		}
+		split.add (remainder);
+		log.trace ("Split change {} into {} outputs", change, split.size ());
+		long[] changes = new long[split.size ()];
+		for ( int i = 0; i < changes.length; ++i )
+		{
+			changes[i] = split.get (i);
+		}
+		return changes;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+// Processing transactions that do not touch the account must not allocate more per transaction than decoding the
+// addresses of their outputs, which the account manager can not avoid. Needs trace logging off.
+public class AllocationTest
+{
+	private static final int TRANSACTIONS = 10000;
+	private static final int ROUNDS = 40;
+	private static final long SLACK = 16;
+
+	private int nonce;
+
+	@Test
+	public void foreignTransactions () throws ValidationException
+	{
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+		Assume.assumeTrue (mx instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+		Assume.assumeTrue (threads.isThreadAllocatedMemorySupported () && threads.isThreadAllocatedMemoryEnabled ());
+		long thread = Thread.currentThread ().getId ();
+
+		KeyListAccountManager account = createFundedAccount (1000);
+		List<Transaction> foreign = createForeignTransactions (TRANSACTIONS);
+
+		long decoding = Long.MAX_VALUE;
+		long processing = Long.MAX_VALUE;
+		int n = 0;
+		// the best of many rounds, escape analysis removes most temporaries only once the JIT compiled the loop
+		for ( int round = 0; round < ROUNDS; ++round )
+		{
+			long start = threads.getThreadAllocatedBytes (thread);
+			for ( Transaction t : foreign )
+			{
+				for ( TransactionOutput o : t.getOutputs () )
+				{
+					n += o.getOutputAddress () == null ? 0 : 1;
+				}
+			}
+			decoding = Math.min (decoding, (threads.getThreadAllocatedBytes (thread) - start) / TRANSACTIONS);
+
+			start = threads.getThreadAllocatedBytes (thread);
+			for ( Transaction t : foreign )
+			{
+				n += account.process (t) ? 1 : 0;
+			}
+			processing = Math.min (processing, (threads.getThreadAllocatedBytes (thread) - start) / TRANSACTIONS);
+		}
+		assertTrue ("no outputs decoded", n > 0);
+		assertTrue ("processing a foreign transaction allocates " + processing + " bytes, decoding its addresses " + decoding,
+				processing <= decoding + SLACK);
+	}
+
+	private KeyListAccountManager createFundedAccount (int outputs) throws ValidationException
+	{
+		KeyListAccountManager account = new KeyListAccountManager ();
+		for ( int i = 0; i < 10; ++i )
+		{
+			account.addKey (ECKeyPair.createNew (true));
+		}
+		for ( int i = 0; i < outputs; ++i )
+		{
+			List<Address> receiver = new ArrayList<> ();
+			receiver.add (account.getNextReceiverAddress ());
+			Transaction funding = createTransaction (Hash.ZERO_HASH_STRING, 1, receiver);
+			funding.setBlockHash (Hash.ZERO_HASH_STRING);
+			funding.setHeight (1);
+			account.process (funding);
+		}
+		return account;
+	}
+
+	// two inputs and two outputs between addresses the account does not own
+	private List<Transaction> createForeignTransactions (int n) throws ValidationException
+	{
+		List<Address> receiver = new ArrayList<> ();
+		receiver.add (ECKeyPair.createNew (true).getAddress ());
+		receiver.add (ECKeyPair.createNew (true).getAddress ());
+		List<Transaction> transactions = new ArrayList<> ();
+		for ( int i = 0; i < n; ++i )
+		{
+			transactions.add (createTransaction (Hash.ZERO_HASH_STRING, 2, receiver));
+		}
+		return transactions;
+	}
+
+	private Transaction createTransaction (String source, int inputs, List<Address> receiver) throws ValidationException
+	{
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		for ( int j = 0; j < inputs; ++j )
+		{
+			TransactionInput i = new TransactionInput ();
+			i.setSourceHash (source);
+			i.setIx (j);
+			i.setScript (new byte[] { 4, (byte) nonce, (byte) (nonce >>> 8), (byte) (nonce >>> 16), (byte) (nonce >>> 24) });
+			++nonce;
+			t.getInputs ().add (i);
+		}
+		for ( Address a : receiver )
+		{
+			TransactionOutput o = new TransactionOutput ();
+			o.setValue (100000);
+			o.setScript (a.getAddressScript ());
+			t.getOutputs ().add (o);
+		}
+		t.computeHash ();
+		return t;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class BaseAccountManagerTest
+{
+	private static final long VALUE = 100000;
+
+	private KeyListAccountManager account;
+	private Address own;
+	private int nonce;
+
+	@Before
+	public void setUp ()
+	{
+		ECKeyPair key = ECKeyPair.createNew (true);
+		account = new KeyListAccountManager ();
+		account.addKey (key);
+		own = key.getAddress ();
+	}
+
+	@Test
+	public void confirmedSpendWithoutChange () throws ValidationException
+	{
+		Transaction funding = createTransaction (Hash.ZERO_HASH_STRING, own, VALUE);
+		confirm (funding, 10);
+		account.process (funding);
+
+		Transaction spend = createTransaction (funding.getHash (), ECKeyPair.createNew (true).getAddress (), VALUE);
+		account.process (spend);
+		assertEquals (0, account.getBalance ());
+		assertEquals (VALUE, account.getSending ());
+
+		confirm (spend, 11);
+		account.setChainHeight (11);
+		account.process (spend);
+
+		assertEquals (0, account.getSending ());
+		assertEquals (VALUE, account.getBalanceAt (10));
+		assertEquals (0, account.getBalanceAt (11));
+		assertEquals (0, account.getBalance (1));
+		assertEquals (1, account.getTransactionsByHeight (11, 11, null, 10).getTransactions ().size ());
+		assertEquals (0, account.getTransactionsByHeight (HistoryIndex.UNCONFIRMED, HistoryIndex.UNCONFIRMED, null, 10).getTransactions ().size ());
+	}
+
+	@Test
+	public void spendStoredBeforeFunding () throws ValidationException
+	{
+		Transaction funding = createTransaction (Hash.ZERO_HASH_STRING, own, VALUE);
+		confirm (funding, 10);
+		Transaction spend = createTransaction (funding.getHash (), ECKeyPair.createNew (true).getAddress (), VALUE / 2, own, VALUE / 2);
+		confirm (spend, 11);
+
+		account.process (spend);
+		account.process (funding);
+
+		assertEquals (VALUE, account.getBalanceAt (10));
+		assertEquals (VALUE / 2, account.getBalanceAt (11));
+	}
+
+	// spends output 0 of the source, pairs of address and value make the outputs
+	private Transaction createTransaction (String source, Object... outputs) throws ValidationException
+	{
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		TransactionInput i = new TransactionInput ();
+		i.setSourceHash (source);
+		i.setIx (0);
+		i.setScript (new byte[] { 1, (byte) nonce++ });
+		t.getInputs ().add (i);
+		for ( int j = 0; j < outputs.length; j += 2 )
+		{
+			TransactionOutput o = new TransactionOutput ();
+			o.setScript (((Address) outputs[j]).getAddressScript ());
+			o.setValue ((Long) outputs[j + 1]);
+			t.getOutputs ().add (o);
+		}
+		t.computeHash ();
+		return t;
+	}
+
+	private static void confirm (Transaction t, int height)
+	{
+		t.setBlockHash ("block" + height);
+		t.setHeight (height);
+		t.setBlocktime (1400000000L + height * 600L);
+	}
+}
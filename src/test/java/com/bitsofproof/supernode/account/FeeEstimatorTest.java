@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.bitsofproof.supernode.account.PaymentOptions.Priority;
+import com.bitsofproof.supernode.api.Block;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.Hash;
+
+public class FeeEstimatorTest
+{
+	// past the last halving, so that the coinbase is all fees
+	private static final int HEIGHT = 64 * 210000;
+
+	@Test
+	public void reappliedBlockReplacesItsEntry ()
+	{
+		FeeEstimator estimator = new FeeEstimator (3, 100);
+		Block a = createBlock (1, 10000);
+		Block b = createBlock (2, 30000);
+
+		estimator.blockAdded (a);
+		long rateA = estimator.getFeeRate (Priority.NORMAL);
+		estimator.blockAdded (b);
+		long average = estimator.getFeeRate (Priority.NORMAL);
+		assertTrue (average > rateA);
+
+		// a reorg applies the block again
+		estimator.blockAdded (a);
+		assertEquals (average, estimator.getFeeRate (Priority.NORMAL));
+	}
+
+	// a coinbase paying the fees and a transaction spending an output the estimator does not know
+	private static Block createBlock (int nonce, long fees)
+	{
+		Block b = new Block ();
+		b.setHeight (HEIGHT + nonce);
+		b.setNonce (nonce);
+		b.setTransactions (new ArrayList<Transaction> ());
+		b.getTransactions ().add (createTransaction (Hash.ZERO_HASH_STRING, nonce, fees));
+		b.getTransactions ().add (createTransaction ("unknown", nonce, 100000));
+		b.computeHash ();
+		return b;
+	}
+
+	private static Transaction createTransaction (String source, int nonce, long value)
+	{
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		TransactionInput i = new TransactionInput ();
+		i.setSourceHash (source);
+		i.setIx (0);
+		i.setScript (new byte[] { 1, (byte) nonce });
+		t.getInputs ().add (i);
+		TransactionOutput o = new TransactionOutput ();
+		o.setScript (new byte[25]);
+		o.setValue (value);
+		t.getOutputs ().add (o);
+		t.computeHash ();
+		return t;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class MultisigTransactionSourceTest
+{
+	private static List<byte[]> createKeys (int n)
+	{
+		List<byte[]> keys = new ArrayList<> ();
+		for ( int i = 0; i < n; ++i )
+		{
+			keys.add (ECKeyPair.createNew (true).getPublic ());
+		}
+		return keys;
+	}
+
+	@Test
+	public void fifteenCompressedKeys () throws ValidationException
+	{
+		byte[] script = MultisigTransactionSource.createRedeemScript (1, createKeys (15));
+		assertEquals (513, script.length);
+		assertEquals (15, MultisigTransactionSource.getKeys (script).size ());
+		assertNotNull (new MultisigAccountManager ().addRedeemScript (script));
+	}
+
+	@Test (expected = ValidationException.class)
+	public void sixteenCompressedKeys () throws ValidationException
+	{
+		MultisigTransactionSource.createRedeemScript (1, createKeys (16));
+	}
+
+	@Test (expected = ValidationException.class)
+	public void addOversizedScript () throws ValidationException
+	{
+		// OP_1 <16 keys> OP_16 OP_CHECKMULTISIG
+		List<byte[]> keys = createKeys (16);
+		byte[] script = new byte[3 + 16 * 34];
+		int p = 0;
+		script[p++] = 0x51;
+		for ( byte[] key : keys )
+		{
+			script[p++] = (byte) key.length;
+			System.arraycopy (key, 0, script, p, key.length);
+			p += key.length;
+		}
+		script[p++] = 0x60;
+		script[p] = (byte) 0xae;
+		new MultisigAccountManager ().addRedeemScript (script);
+	}
+
+	@Test
+	public void failingCoSignerInSequence () throws ValidationException
+	{
+		assertNotNull (spendWithFailingCoSigner (null));
+	}
+
+	@Test
+	public void failingCoSignerInParallel () throws ValidationException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool (3);
+		try
+		{
+			assertNotNull (spendWithFailingCoSigner (executor));
+		}
+		finally
+		{
+			executor.shutdownNow ();
+		}
+	}
+
+	// 2 of 3 where the first signer throws at once and the others answer late
+	private static byte[] spendWithFailingCoSigner (ExecutorService executor) throws ValidationException
+	{
+		List<CoSigner> signers = new ArrayList<> ();
+		final ECKeyPair failing = ECKeyPair.createNew (true);
+		signers.add (new CoSigner ()
+		{
+			@Override
+			public byte[] getPublic ()
+			{
+				return failing.getPublic ();
+			}
+
+			@Override
+			public byte[] sign (byte[] hash)
+			{
+				throw new IllegalStateException ("signer unavailable");
+			}
+		});
+		for ( int i = 0; i < 2; ++i )
+		{
+			signers.add (new LocalCoSigner (ECKeyPair.createNew (true))
+			{
+				@Override
+				public byte[] sign (byte[] hash) throws ValidationException
+				{
+					try
+					{
+						Thread.sleep (50);
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread ().interrupt ();
+					}
+					return super.sign (hash);
+				}
+			});
+		}
+		List<byte[]> keys = new ArrayList<> ();
+		for ( CoSigner s : signers )
+		{
+			keys.add (s.getPublic ());
+		}
+		byte[] redeemScript = MultisigTransactionSource.createRedeemScript (2, keys);
+
+		TransactionOutput o = new TransactionOutput ();
+		o.setTxHash (Hash.ZERO_HASH_STRING);
+		o.setIx (0);
+		o.setValue (100000);
+		o.setScript (new Address (Address.Type.P2SH, Hash.keyHash (redeemScript)).getAddressScript ());
+
+		Transaction t = new Transaction ();
+		t.setVersion (1);
+		t.setInputs (new ArrayList<TransactionInput> ());
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		TransactionInput input = new TransactionInput ();
+		input.setSourceHash (o.getTxHash ());
+		input.setIx (o.getIx ());
+		t.getInputs ().add (input);
+
+		MultisigAccountManager account = new MultisigAccountManager ();
+		MultisigTransactionSource source = new MultisigTransactionSource (o, account, redeemScript, signers, executor);
+		return source.spend (0, new SigningContext (t, account));
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bitsofproof.supernode.api.Address;
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionInput;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.Hash;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class PaymentBatcherTest
+{
+	private static final long VALUE = 10000000;
+	private static final long AMOUNT = 100000;
+
+	private KeyListAccountManager account;
+	private PaymentBatcher batcher;
+	private final List<Payout> failed = new ArrayList<> ();
+
+	@Before
+	public void setUp () throws ValidationException
+	{
+		ECKeyPair key = ECKeyPair.createNew (true);
+		account = new KeyListAccountManager ();
+		account.addKey (key);
+
+		Transaction funding = new Transaction ();
+		funding.setVersion (1);
+		funding.setInputs (new ArrayList<TransactionInput> ());
+		funding.setOutputs (new ArrayList<TransactionOutput> ());
+		TransactionInput i = new TransactionInput ();
+		i.setSourceHash (Hash.ZERO_HASH_STRING);
+		i.setIx (0);
+		i.setScript (new byte[] { 1, 0 });
+		funding.getInputs ().add (i);
+		TransactionOutput o = new TransactionOutput ();
+		o.setScript (key.getAddress ().getAddressScript ());
+		o.setValue (VALUE);
+		funding.getOutputs ().add (o);
+		funding.computeHash ();
+		funding.setBlockHash ("block10");
+		funding.setHeight (10);
+		account.process (funding);
+
+		batcher = new PaymentBatcher (account, null, new PaymentOptions (10000), null);
+		batcher.addPayoutListener (new PayoutListener ()
+		{
+			@Override
+			public void paid (Payout payout)
+			{
+			}
+
+			@Override
+			public void failed (Payout payout)
+			{
+				PaymentBatcherTest.this.failed.add (payout);
+			}
+		});
+	}
+
+	@Test
+	public void delayWithoutScheduler () throws InterruptedException
+	{
+		batcher.setMaxDelay (50);
+		Payout first = batcher.pay (ECKeyPair.createNew (true).getAddress (), AMOUNT);
+		assertEquals (1, batcher.getQueued ());
+		Thread.sleep (100);
+		Payout second = batcher.pay (ECKeyPair.createNew (true).getAddress (), AMOUNT);
+
+		assertEquals (0, batcher.getQueued ());
+		assertEquals (Payout.State.PAID, first.getState ());
+		assertSame (first.getTransaction (), second.getTransaction ());
+	}
+
+	@Test
+	public void invalidPayoutFailsAlone ()
+	{
+		batcher.setMaxPayouts (3);
+		Payout first = batcher.pay (ECKeyPair.createNew (true).getAddress (), AMOUNT);
+		Payout invalid = batcher.pay (ECKeyPair.createNew (true).getAddress (), 0);
+		Payout last = batcher.pay (ECKeyPair.createNew (true).getAddress (), AMOUNT);
+
+		assertEquals (Payout.State.FAILED, invalid.getState ());
+		assertEquals (1, failed.size ());
+		assertSame (invalid, failed.get (0));
+		assertEquals (Payout.State.PAID, first.getState ());
+		assertEquals (Payout.State.PAID, last.getState ());
+		// the two valid payouts and the change
+		assertEquals (3, first.getTransaction ().getOutputs ().size ());
+	}
+}
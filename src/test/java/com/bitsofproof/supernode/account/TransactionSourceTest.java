@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 bits of proof zrt.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bitsofproof.supernode.api.Transaction;
+import com.bitsofproof.supernode.api.TransactionOutput;
+import com.bitsofproof.supernode.common.ECKeyPair;
+import com.bitsofproof.supernode.common.ValidationException;
+
+public class TransactionSourceTest
+{
+	private static final long VALUE = 100000;
+	private static final long FEE = 10000;
+
+	private KeyListAccountManager account;
+	private ECKeyPair key;
+
+	@Before
+	public void setUp ()
+	{
+		key = ECKeyPair.createNew (true);
+		account = new KeyListAccountManager ();
+		account.addKey (key);
+	}
+
+	private static class LegacySource extends TransactionSource
+	{
+		private final byte[] script;
+		private final List<byte[]> previous = new ArrayList<> ();
+
+		public LegacySource (TransactionOutput source, TransactionFactory account, byte[] script)
+		{
+			super (source, account);
+			this.script = script;
+		}
+
+		@Override
+		@Deprecated
+		protected byte[] spend (int ix, Transaction transaction) throws ValidationException
+		{
+			for ( int i = 0; i < ix; ++i )
+			{
+				previous.add (transaction.getInputs ().get (i).getScript ());
+			}
+			return script;
+		}
+	}
+
+	@Test
+	public void legacySpendIsCalled () throws ValidationException
+	{
+		byte[] first = new byte[] { 1, 2, 3 };
+		byte[] second = new byte[] { 4, 5, 6 };
+		LegacySource a = new LegacySource (createOutput (0), account, first);
+		LegacySource b = new LegacySource (createOutput (1), account, second);
+		assertTrue (a.isLegacySpend ());
+		assertFalse (new TransactionSource (createOutput (2), account).isLegacySpend ());
+
+		List<TransactionSource> sources = new ArrayList<TransactionSource> (Arrays.asList (a, b));
+		List<TransactionSink> sinks = new ArrayList<> ();
+		sinks.add (new TransactionSink (ECKeyPair.createNew (true).getAddress ().getAddressScript (), 2 * VALUE - FEE));
+		Transaction t = account.createTransaction (sources, sinks, FEE);
+
+		assertTrue (Arrays.equals (first, t.getInputs ().get (0).getScript ()));
+		assertTrue (Arrays.equals (second, t.getInputs ().get (1).getScript ()));
+		assertEquals (1, b.previous.size ());
+		assertTrue (Arrays.equals (first, b.previous.get (0)));
+	}
+
+	@Test
+	public void scriptLengthOfUnknownType () throws ValidationException
+	{
+		TransactionOutput o = createOutput (0);
+		o.setScript (new byte[] { 0x51 });
+		TransactionSource custom = new TransactionSource (o, account)
+		{
+			@Override
+			protected byte[] spend (int ix, SigningContext context)
+			{
+				return new byte[0];
+			}
+		};
+		assertEquals (TransactionSource.UNKNOWN_SCRIPT_LENGTH, custom.getMaximumScriptLength ());
+		assertTrue (new TransactionSource (createOutput (1), account).getMaximumScriptLength () < TransactionSource.UNKNOWN_SCRIPT_LENGTH);
+	}
+
+	private TransactionOutput createOutput (int ix) throws ValidationException
+	{
+		TransactionOutput o = new TransactionOutput ();
+		o.setTxHash ("0000000000000000000000000000000000000000000000000000000000000001");
+		o.setIx (ix);
+		o.setValue (VALUE);
+		o.setScript (key.getAddress ().getAddressScript ());
+		return o;
+	}
+}